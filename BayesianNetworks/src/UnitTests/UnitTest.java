@@ -1,15 +1,40 @@
 package UnitTests;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
 
+import algorithms.ConditioningEngine;
+import algorithms.DecisionEvaluator;
+import algorithms.InferenceEngine;
+import algorithms.InferenceMetrics;
+import algorithms.Instrumentation;
+import algorithms.JunctionTree;
+import algorithms.LikelihoodWeighting;
+import algorithms.ParallelInferenceEngine;
+import algorithms.TracePrinter;
+import math.ArithmeticCircuit;
 import math.Assignment;
+import math.BayesianNetwork;
+import math.BifParser;
+import math.DecisionNetwork;
+import math.EliminationHeuristic;
+import math.Evidence;
 import math.Factor;
+import math.NetworkFile;
 import math.Variable;
+import math.WideFactor;
+import math.XmlBifParser;
 
 public class UnitTest {
 
-    public static void main(String args[]) {
+    public static void main(String args[]) throws IOException {
         Variable a = new Variable("A");
         Variable b = new Variable("B");
         Variable c = new Variable("C");
@@ -57,12 +82,23 @@ public class UnitTest {
         printFactor("factor 2 restricted to B=T:", Factor.restrict(testFactor, b, true));
         printFactor("factor 2 restricted to B=T (non static):", testFactor.restrict(b, true));
         printFactor("factor 2 normalized:", testFactor.normalize());
+        printFactor("factor 2 maxed over E:", Factor.maxout(testFactor, e));
 
         Factor F = setTestValues2Vars1(new Factor(a, b));
         Factor G = setTestValues2Vars2(new Factor(b, c));
         printFactor("factor F:", F);
         printFactor("factor G:", G);
         printFactor("factor F x G:", Factor.multiply(F, G));
+        printFactor("factor F x G x G (in place):", Factor.multiply(F, G).multiply(G));
+
+        Factor deterministic = new Factor(c, b);
+        deterministic.setValue(1, true, true);
+        deterministic.setValue(0, true, false);
+        deterministic.setValue(0, false, true);
+        deterministic.setValue(0, false, false);
+        deterministic.compact();
+        System.out.println("deterministic factor is sparse: " + deterministic.isSparse());
+        printFactor("factor F x deterministic (sparse):", Factor.multiply(F, deterministic));
 
         Factor f1 = new Factor(a);
         f1.setValue(0.9, true);
@@ -95,8 +131,113 @@ public class UnitTest {
         orderedVariables.add(a);
         orderedVariables.add(b);
         queryVariables.add(c);
-        Factor res = Factor.inference(factors, queryVariables, orderedVariables, evidence, true);
+        Factor res = Factor.inference(factors, queryVariables, orderedVariables, evidence, true,
+                new TracePrinter(System.out).startQuery());
         printFactor("\nresult:", res);
+
+        BayesianNetwork network = new BayesianNetwork(f1, f2, f3);
+        InferenceEngine parallelEngine = new ParallelInferenceEngine(new ForkJoinPool(4),
+                EliminationHeuristic.MIN_FILL, Long.MAX_VALUE, 1);
+        printFactor("parallel P(C):", parallelEngine.query(network, Evidence.empty(), c));
+        // factors of at most 2 entries per thread: conditions on a cutset
+        InferenceEngine conditioningEngine = new ConditioningEngine(new ForkJoinPool(2),
+                EliminationHeuristic.MIN_FILL, 16 * 2 * 2, Instrumentation.NONE);
+        printFactor("conditioning P(C):", conditioningEngine.query(network, Evidence.empty(), c));
+        InferenceMetrics metrics = new InferenceMetrics();
+        new InferenceEngine(EliminationHeuristic.MIN_FILL, Long.MAX_VALUE, metrics).query(network,
+                Evidence.empty().with(a, true), c);
+        System.out.println("metrics of P(C | a): queries=" + metrics.getQueries() + ", products="
+                + metrics.getProducts() + ", largest factor="
+                + metrics.getMaxFactorSizes().getMax() + "\n");
+        printFactor("log space P(C):", new InferenceEngine().query(network.toLogSpace(),
+                Evidence.empty(), c).toProbabilitySpace());
+
+        printFactor("off-heap Sum[B] f2(A,B) f3(B,C):", WideFactor.sumProduct(
+                Arrays.asList(WideFactor.copyOf(f2), WideFactor.copyOf(f3)), b).toFactor());
+
+        JunctionTree tree = new JunctionTree(network, EliminationHeuristic.MIN_FILL);
+        printFactor("junction tree P(C):", tree.marginal(c, Evidence.empty()));
+        printFactor("junction tree P(C | b):", tree.marginal(c, Evidence.empty().with(b, true)));
+        printFactor("junction tree P(A | c):", tree.marginal(a, Evidence.empty().with(c, true)));
+
+        Variable w = new Variable("W", "sun", "rain", "snow");
+        Factor fW = new Factor(w);
+        fW.setValue(0.6, 0);
+        fW.setValue(0.3, 1);
+        fW.setValue(0.1, 2);
+        Factor fAW = new Factor(a, w);
+        fAW.setValue(0.2, 1, 0);
+        fAW.setValue(0.8, 0, 0);
+        fAW.setValue(0.7, 1, 1);
+        fAW.setValue(0.3, 0, 1);
+        fAW.setValue(0.9, 1, 2);
+        fAW.setValue(0.1, 0, 2);
+        printFactor("factor f(A,W):", fAW);
+        BayesianNetwork multiValued = new BayesianNetwork(fW, fAW);
+        printFactor("multi-valued P(W | a):", new InferenceEngine().query(multiValued,
+                Evidence.empty().with(a, true), w));
+        printFactor("multi-valued P(A | W=snow):", new InferenceEngine().query(multiValued,
+                Evidence.empty().with(w, 2), a));
+
+        System.out.println("relevant factors of P(W) and P(W | a): "
+                + multiValued.getRelevantFactors(Evidence.empty(), true, w) + " and "
+                + multiValued.getRelevantFactors(Evidence.empty().with(a, true), true, w) + "\n");
+        System.out.println("MPE(a) = " + new InferenceEngine().mostProbableExplanation(multiValued,
+                Evidence.empty().with(a, true)) + "\n");
+        printFactor("likelihood weighting P(W | a):", new LikelihoodWeighting(multiValued, 1, 42)
+                .query(Evidence.empty().with(a, true), w, 100000));
+        ArithmeticCircuit.Evaluator circuit = ArithmeticCircuit.compile(multiValued,
+                EliminationHeuristic.MIN_FILL).newEvaluator();
+        circuit.setEvidence(Evidence.empty().with(a, true));
+        circuit.differentiate();
+        printFactor("arithmetic circuit P(W | a):", circuit.posterior(w));
+
+        Variable umbrella = new Variable("Umbrella");
+        Factor uWD = new Factor(w, umbrella);
+        uWD.setValue(-1, 0, 1);
+        uWD.setValue(2, 0, 0);
+        uWD.setValue(1, 1, 1);
+        uWD.setValue(-3, 1, 0);
+        uWD.setValue(0, 2, 1);
+        uWD.setValue(-5, 2, 0);
+        DecisionNetwork decisionNetwork = new DecisionNetwork(multiValued)
+                .withDecision(umbrella, a).withUtility(uWD);
+        System.out.println("strategy of Umbrella knowing A:\n"
+                + new DecisionEvaluator(EliminationHeuristic.MIN_FILL).evaluate(decisionNetwork,
+                        Evidence.empty()) + "\n");
+
+        Path file = Files.createTempFile("network", ".bn");
+        NetworkFile.write(multiValued, file);
+        BayesianNetwork mapped = NetworkFile.map(file);
+        // the variables read from the file are not the ones written
+        Variable mappedW = mapped.getVariables().get(0);
+        Variable mappedA = mapped.getVariables().get(1);
+        printFactor("mapped P(W | a):", new InferenceEngine().query(mapped,
+                Evidence.empty().with(mappedA, true), mappedW));
+        Files.delete(file);
+
+        String bif = "variable Rain { type discrete [ 2 ] { yes, no }; }\n"
+                + "variable Grass { type discrete [ 3 ] { dry, damp, wet }; }\n"
+                + "probability ( Rain ) { table 0.2, 0.8; }\n"
+                + "probability ( Grass | Rain ) { (yes) 0.1, 0.3, 0.6; (no) 0.7, 0.2, 0.1; }\n";
+        BayesianNetwork parsed = BifParser.parse(new StringReader(bif));
+        Variable rain = parsed.getVariables().get(0);
+        Variable grass = parsed.getVariables().get(1);
+        printFactor("BIF P(Rain | grass=wet):", new InferenceEngine().query(parsed,
+                Evidence.empty().with(grass, 2), rain));
+        String xmlBif = "<BIF VERSION=\"0.3\"><NETWORK><NAME>rain</NAME>"
+                + "<VARIABLE TYPE=\"nature\"><NAME>Rain</NAME><OUTCOME>yes</OUTCOME>"
+                + "<OUTCOME>no</OUTCOME></VARIABLE>"
+                + "<VARIABLE TYPE=\"nature\"><NAME>Grass</NAME><OUTCOME>dry</OUTCOME>"
+                + "<OUTCOME>damp</OUTCOME><OUTCOME>wet</OUTCOME></VARIABLE>"
+                + "<DEFINITION><FOR>Rain</FOR><TABLE>0.2 0.8</TABLE></DEFINITION>"
+                + "<DEFINITION><FOR>Grass</FOR><GIVEN>Rain</GIVEN>"
+                + "<TABLE>0.1 0.3 0.6 0.7 0.2 0.1</TABLE></DEFINITION></NETWORK></BIF>";
+        parsed = XmlBifParser.parse(new ByteArrayInputStream(xmlBif.getBytes("UTF-8")));
+        rain = parsed.getVariables().get(0);
+        grass = parsed.getVariables().get(1);
+        printFactor("XMLBIF P(Rain | grass=wet):", new InferenceEngine().query(parsed,
+                Evidence.empty().with(grass, 2), rain));
     }
 
     private static void printFactor(String text, Factor f) {
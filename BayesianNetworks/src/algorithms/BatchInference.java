@@ -0,0 +1,245 @@
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import math.BayesianNetwork;
+import math.Evidence;
+import math.Factor;
+import math.Variable;
+
+/**
+ * Answers the same query for many rows of evidence on the same variables. The
+ * unobserved variables are eliminated only once, when the batch inference is
+ * created, which leaves the joint table of the query and evidence variables. Each
+ * row then only costs a lookup in this table and a normalization.
+ * <p>
+ * The joint table has one entry per assignment of the query and evidence
+ * variables, so this is meant for a small number of evidence variables.
+ */
+public class BatchInference {
+
+    private final Variable[] queryVariables;
+    private final Variable[] evidenceVariables;
+    private final double[] joint;
+    private final boolean logSpace;
+    // stride of each evidence variable in the joint table
+    private final int[] evidenceStrides;
+    // index in the joint table of each assignment of the query variables
+    private final int[] queryOffsets;
+
+    /**
+     * Eliminates all the variables of the network except the query and evidence
+     * variables.
+     * 
+     * @param engine
+     *            The engine used for the elimination
+     * @param network
+     *            The network to query
+     * @param queryVariables
+     *            The variables whose distribution is computed for each row
+     * @param evidenceVariables
+     *            The variables observed in each row
+     * @throws IllegalArgumentException
+     *             If a variable is not in the network, or is given twice.
+     */
+    public BatchInference(InferenceEngine engine, BayesianNetwork network,
+            Variable[] queryVariables, Variable[] evidenceVariables) {
+        this.queryVariables = queryVariables.clone();
+        this.evidenceVariables = evidenceVariables.clone();
+        Variable[] kept = new Variable[queryVariables.length + evidenceVariables.length];
+        System.arraycopy(queryVariables, 0, kept, 0, queryVariables.length);
+        System.arraycopy(evidenceVariables, 0, kept, queryVariables.length,
+                evidenceVariables.length);
+        HashSet<Variable> distinct = new HashSet<>();
+        for (Variable v : kept) {
+            if (!distinct.add(v)) {
+                throw new IllegalArgumentException(v + " is given twice");
+            }
+        }
+        Factor jointFactor = engine.query(network, Evidence.empty(), false, kept);
+        joint = jointFactor.getValues();
+        logSpace = jointFactor.isLogSpace();
+        ArrayList<Variable> jointVars = jointFactor.getVariables();
+        evidenceStrides = new int[evidenceVariables.length];
+        for (int k = 0; k < evidenceVariables.length; k++) {
+            evidenceStrides[k] = strideOf(jointVars, evidenceVariables[k]);
+        }
+        int querySize = 1;
+        for (Variable v : queryVariables) {
+            querySize *= v.getCardinality();
+        }
+        queryOffsets = new int[querySize];
+        for (int j = 0; j < queryOffsets.length; j++) {
+            int remaining = j;
+            for (Variable v : queryVariables) {
+                queryOffsets[j] += remaining % v.getCardinality() * strideOf(jointVars, v);
+                remaining /= v.getCardinality();
+            }
+        }
+    }
+
+    /**
+     * Returns the stride of v in the table of a factor on the given variables.
+     */
+    private static int strideOf(ArrayList<Variable> vars, Variable v) {
+        int position = vars.indexOf(v);
+        if (position < 0) {
+            throw new IllegalArgumentException(v + " is not a variable of the network");
+        }
+        int stride = 1;
+        for (int i = 0; i < position; i++) {
+            stride *= vars.get(i).getCardinality();
+        }
+        return stride;
+    }
+
+    /**
+     * Returns the number of values of each posterior, which is the size of a
+     * factor on the query variables.
+     * 
+     * @return the number of values per row in the results
+     */
+    public int getPosteriorSize() {
+        return queryOffsets.length;
+    }
+
+    /**
+     * Computes the normalized distribution of the query variables for each row of
+     * evidence.
+     * 
+     * @param evidenceColumns
+     *            The observed values, one column per evidence variable (in the order
+     *            given at construction), one row per case: evidenceColumns[k][r] is
+     *            the value of the k-th evidence variable in the row r. All the
+     *            evidence variables must be boolean; the values of other variables
+     *            are given to {@link #posteriors(int[][])}.
+     * @return The posteriors of all rows (as probabilities, even if the network is
+     *         in log space), one after the other:
+     *         {@link #getPosteriorSize()} values per row, in the order of the table
+     *         of a factor on the query variables.
+     * @throws IllegalStateException
+     *             If the evidence of a row has a probability of 0
+     */
+    public double[] posteriors(boolean[][] evidenceColumns) {
+        checkColumnCount(evidenceColumns.length);
+        for (Variable v : evidenceVariables) {
+            if (!v.isBoolean()) {
+                throw new IllegalArgumentException("The evidence variable " + v
+                        + " is not boolean, give its values to posteriors(int[][])");
+            }
+        }
+        int rows = evidenceColumns.length == 0 ? 1 : evidenceColumns[0].length;
+        // index of the evidence of each row in the joint table, column by column
+        int[] rowIndices = new int[rows];
+        for (int k = 0; k < evidenceColumns.length; k++) {
+            boolean[] column = evidenceColumns[k];
+            checkRowCount(column.length, rows);
+            int stride = evidenceStrides[k];
+            for (int r = 0; r < rows; r++) {
+                if (column[r]) {
+                    rowIndices[r] += stride;
+                }
+            }
+        }
+        return posteriors(rowIndices);
+    }
+
+    /**
+     * Computes the normalized distribution of the query variables for each row of
+     * evidence, given as indices of values.
+     * 
+     * @param evidenceColumns
+     *            The indices of the observed values, one column per evidence
+     *            variable (in the order given at construction), one row per case:
+     *            evidenceColumns[k][r] is the value of the k-th evidence variable in
+     *            the row r.
+     * @return The posteriors of all rows, like {@link #posteriors(boolean[][])}.
+     * @throws IllegalStateException
+     *             If the evidence of a row has a probability of 0
+     */
+    public double[] posteriors(int[][] evidenceColumns) {
+        checkColumnCount(evidenceColumns.length);
+        int rows = evidenceColumns.length == 0 ? 1 : evidenceColumns[0].length;
+        int[] rowIndices = new int[rows];
+        for (int k = 0; k < evidenceColumns.length; k++) {
+            int[] column = evidenceColumns[k];
+            checkRowCount(column.length, rows);
+            int stride = evidenceStrides[k];
+            Variable v = evidenceVariables[k];
+            for (int r = 0; r < rows; r++) {
+                v.checkValue(column[r]);
+                rowIndices[r] += column[r] * stride;
+            }
+        }
+        return posteriors(rowIndices);
+    }
+
+    private void checkColumnCount(int columns) {
+        if (columns != evidenceVariables.length) {
+            throw new IllegalArgumentException("Expected " + evidenceVariables.length
+                    + " evidence columns, got " + columns);
+        }
+    }
+
+    private static void checkRowCount(int length, int rows) {
+        if (length != rows) {
+            throw new IllegalArgumentException("All evidence columns must have " + rows
+                    + " rows");
+        }
+    }
+
+    /**
+     * Gathers the joint values of each row, given the index of its evidence in the
+     * joint table, and normalizes them.
+     */
+    private double[] posteriors(int[] rowIndices) {
+        int rows = rowIndices.length;
+        int size = queryOffsets.length;
+        double[] results = new double[rows * size];
+        for (int j = 0; j < size; j++) {
+            int offset = queryOffsets[j];
+            for (int r = 0; r < rows; r++) {
+                results[r * size + j] = joint[rowIndices[r] + offset];
+            }
+        }
+        for (int r = 0; r < rows; r++) {
+            if (logSpace) {
+                // back to probabilities, relatively to the largest value of the row
+                double max = Double.NEGATIVE_INFINITY;
+                for (int j = r * size; j < (r + 1) * size; j++) {
+                    max = Math.max(max, results[j]);
+                }
+                if (max == Double.NEGATIVE_INFINITY) {
+                    throw impossibleEvidence(r);
+                }
+                for (int j = r * size; j < (r + 1) * size; j++) {
+                    results[j] = Math.exp(results[j] - max);
+                }
+            }
+            double sum = 0;
+            for (int j = r * size; j < (r + 1) * size; j++) {
+                sum += results[j];
+            }
+            if (sum == 0) {
+                throw impossibleEvidence(r);
+            }
+            for (int j = r * size; j < (r + 1) * size; j++) {
+                results[j] /= sum;
+            }
+        }
+        return results;
+    }
+
+    private static IllegalStateException impossibleEvidence(int row) {
+        return new IllegalStateException("The evidence of the row " + row
+                + " has a probability of 0");
+    }
+
+    @Override
+    public String toString() {
+        return "P(" + Arrays.toString(queryVariables) + " | "
+                + Arrays.toString(evidenceVariables) + ")";
+    }
+}
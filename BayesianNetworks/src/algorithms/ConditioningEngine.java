@@ -0,0 +1,221 @@
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import math.BayesianNetwork;
+import math.EliminationHeuristic;
+import math.EliminationPlan;
+import math.Evidence;
+import math.Factor;
+import math.QueryTrace;
+import math.Variable;
+
+/**
+ * An {@link InferenceEngine} answering the queries within a memory budget, by
+ * cutset conditioning: when the elimination plan of a query needs factors larger
+ * than the budget allows, some hidden variables are conditioned on, as if they
+ * were observed, until the plan of the remaining sub-problem fits. The
+ * sub-problem is solved for each instantiation of this cutset, and the results
+ * are summed, which trades time for space: each variable of the cutset multiplies
+ * the time by its cardinality.
+ * <p>
+ * The instantiations are solved concurrently on a {@link ForkJoinPool}. The budget
+ * covers the intermediate factors of all the concurrent sub-problems: each of them
+ * keeps its factors under {@code budget / (16 * parallelism)} entries, since an
+ * elimination step holds a product along with its terms or its result. The most
+ * probable explanations are computed without conditioning, and are rejected if
+ * their plan does not fit in the budget.
+ */
+public class ConditioningEngine extends InferenceEngine {
+
+    // bytes of an entry of a factor, times the factors held by a step
+    private static final int BYTES_PER_ENTRY = 16;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates an engine using the common pool and the min-fill heuristic.
+     * 
+     * @param memoryBudget
+     *            The memory available to the intermediate factors of a query, in
+     *            bytes
+     */
+    public ConditioningEngine(long memoryBudget) {
+        this(ForkJoinPool.commonPool(), EliminationHeuristic.MIN_FILL, memoryBudget,
+                Instrumentation.NONE);
+    }
+
+    /**
+     * Creates an engine solving the sub-problems of its queries on the given pool.
+     * 
+     * @param pool
+     *            The pool solving the sub-problems of each query
+     * @param heuristic
+     *            The strategy used to compute the elimination order of each query
+     * @param memoryBudget
+     *            The memory available to the intermediate factors of a query, in
+     *            bytes
+     * @param instrumentation
+     *            The instrumentation starting a trace for each query, which receives
+     *            the steps of all its sub-problems
+     */
+    public ConditioningEngine(ForkJoinPool pool, EliminationHeuristic heuristic,
+            long memoryBudget, Instrumentation instrumentation) {
+        super(heuristic, maxFactorSize(memoryBudget, pool), instrumentation);
+        this.pool = pool;
+    }
+
+    private static long maxFactorSize(long memoryBudget, ForkJoinPool pool) {
+        long size = memoryBudget / BYTES_PER_ENTRY / pool.getParallelism();
+        if (size < 1) {
+            throw new IllegalArgumentException("The budget of " + memoryBudget
+                    + " bytes is too small");
+        }
+        return size;
+    }
+
+    @Override
+    public Factor query(BayesianNetwork network, Evidence evidence, boolean normalize,
+            Variable... queryVariables) {
+        QueryTrace trace = getInstrumentation().startQuery();
+        long start = trace.isEnabled() ? System.nanoTime() : 0;
+        // the restricted factors are copies, the others are only read
+        LinkedList<Factor> factors = new LinkedList<>();
+        for (Factor f : network.getRelevantFactors(evidence, normalize, queryVariables)) {
+            factors.add(restrict(f, evidence, trace));
+        }
+        LinkedList<Variable> queryList = new LinkedList<>();
+        Collections.addAll(queryList, queryVariables);
+        LinkedList<Variable> cutset = new LinkedList<>();
+        EliminationPlan plan = planWithCutset(factors, queryList, cutset);
+        long instantiations = 1;
+        for (Variable v : cutset) {
+            if (instantiations > Long.MAX_VALUE / v.getCardinality()) {
+                throw new IllegalArgumentException("The cutset " + cutset + " is too large");
+            }
+            instantiations *= v.getCardinality();
+        }
+        SubProblems problems = new SubProblems(factors, queryList, cutset, plan.getOrder(),
+                new StepTrace(trace), 0, instantiations);
+        Factor result = pool.invoke(problems);
+        if (normalize) {
+            result.normalize();
+        }
+        if (trace.isEnabled()) {
+            trace.finished(result, System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /**
+     * Adds variables to the cutset, starting with the ones appearing in the most
+     * factors, until the plan of the sub-problems fits in the budget.
+     * 
+     * @param cutset
+     *            The list receiving the variables to condition on
+     * @return The plan of the sub-problems.
+     */
+    private EliminationPlan planWithCutset(LinkedList<Factor> factors,
+            LinkedList<Variable> queryVariables, LinkedList<Variable> cutset) {
+        EliminationPlan plan = EliminationPlan.compute(factors, queryVariables, cutset,
+                getHeuristic());
+        if (plan.getMaxFactorSize() <= getMaxFactorSize()) {
+            return plan;
+        }
+        final HashMap<Variable, Integer> occurrences = new HashMap<>();
+        for (Factor f : factors) {
+            for (Variable v : f.getVariables()) {
+                Integer count = occurrences.get(v);
+                occurrences.put(v, count == null ? 1 : count + 1);
+            }
+        }
+        ArrayList<Variable> candidates = new ArrayList<>(occurrences.keySet());
+        candidates.removeAll(queryVariables);
+        Collections.sort(candidates, new Comparator<Variable>() {
+            @Override
+            public int compare(Variable v1, Variable v2) {
+                int c = Integer.compare(occurrences.get(v2), occurrences.get(v1));
+                return c != 0 ? c : Integer.compare(v1.getId(), v2.getId());
+            }
+        });
+        for (Variable v : candidates) {
+            cutset.add(v);
+            plan = EliminationPlan.compute(factors, queryVariables, cutset, getHeuristic());
+            if (plan.getMaxFactorSize() <= getMaxFactorSize()) {
+                return plan;
+            }
+        }
+        throw new IllegalArgumentException("The query needs a factor of "
+                + plan.getMaxFactorSize() + " entries even with all the hidden variables "
+                + "conditioned on, the budget allows " + getMaxFactorSize());
+    }
+
+    /**
+     * Solves the sub-problems of a range of instantiations of the cutset, and sums
+     * their results. The ranges are split in halves solved concurrently.
+     */
+    private static class SubProblems extends RecursiveTask<Factor> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Factor> factors;
+        private final LinkedList<Variable> queryVariables;
+        private final List<Variable> cutset;
+        private final LinkedList<Variable> order;
+        private final QueryTrace trace;
+        private final long from;
+        private final long to;
+
+        SubProblems(List<Factor> factors, LinkedList<Variable> queryVariables,
+                List<Variable> cutset, LinkedList<Variable> order, QueryTrace trace,
+                long from, long to) {
+            this.factors = factors;
+            this.queryVariables = queryVariables;
+            this.cutset = cutset;
+            this.order = order;
+            this.trace = trace;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Factor compute() {
+            if (to - from == 1) {
+                return solve(from);
+            }
+            long middle = from + (to - from) / 2;
+            SubProblems first = new SubProblems(factors, queryVariables, cutset, order, trace,
+                    from, middle);
+            SubProblems second = new SubProblems(factors, queryVariables, cutset, order, trace,
+                    middle, to);
+            second.fork();
+            Factor sum = first.compute();
+            return Factor.addProbabilities(sum, second.join());
+        }
+
+        /**
+         * Computes the unnormalized result of the query where the cutset has the
+         * instantiation of the given index, the first variable varying fastest.
+         */
+        private Factor solve(long instantiation) {
+            Evidence condition = Evidence.empty();
+            for (Variable v : cutset) {
+                condition = condition.with(v, (int) (instantiation % v.getCardinality()));
+                instantiation /= v.getCardinality();
+            }
+            // the factors of the cutset variables are restricted copies
+            LinkedList<Factor> conditioned = new LinkedList<>();
+            for (Factor f : factors) {
+                conditioned.add(Factor.restrict(f, condition));
+            }
+            return Factor.inference(conditioned, queryVariables, order,
+                    new LinkedList<Variable>(), false, trace);
+        }
+    }
+}
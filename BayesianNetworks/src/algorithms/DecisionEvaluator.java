@@ -0,0 +1,271 @@
+package algorithms;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import math.Assignment;
+import math.DecisionNetwork;
+import math.EliminationHeuristic;
+import math.EliminationPlan;
+import math.Evidence;
+import math.Factor;
+import math.Scope;
+import math.Variable;
+
+/**
+ * Evaluates a {@link DecisionNetwork} by variable elimination on pairs of
+ * probability and utility potentials. The variables are eliminated in the reverse
+ * order of the knowledge of the decision maker: first the chance variables never
+ * observed, then the last decision, the variables observed just before it, the
+ * previous decision, and so on. A single elimination pass computes the optimal
+ * policy of every decision and the maximum expected utility.
+ * <p>
+ * Summing out a chance variable X from the potentials containing it, the product
+ * p of the probabilities and the sum u of the utilities, gives the probability
+ * Sum[X] p and the utility Sum[X] p u / Sum[X] p. Maxing out a decision D gives
+ * the utility Max[D] u, the maximizing values of D being the optimal policy.
+ */
+public class DecisionEvaluator {
+
+    private final EliminationHeuristic heuristic;
+
+    /**
+     * Creates an evaluator using the given heuristic to order the eliminations of
+     * the variables that are known at the same time.
+     * 
+     * @param heuristic
+     *            The strategy used to compute the elimination order
+     */
+    public DecisionEvaluator(EliminationHeuristic heuristic) {
+        this.heuristic = heuristic;
+    }
+
+    /**
+     * Computes the optimal policies and the maximum expected utility of the
+     * decision network given the evidence.
+     * 
+     * @param network
+     *            The decision network to evaluate, which is not modified
+     * @param evidence
+     *            The values of some chance variables, known before all decisions
+     * @return The optimal strategy.
+     */
+    public Strategy evaluate(DecisionNetwork network, Evidence evidence) {
+        LinkedList<Factor> probabilities = new LinkedList<>();
+        for (Factor f : network.getChanceNetwork().getFactors()) {
+            probabilities.add(Factor.restrict(Factor.toProbabilitySpace(f), evidence));
+        }
+        LinkedList<Factor> utilities = new LinkedList<>();
+        for (Factor f : network.getUtilities()) {
+            utilities.add(Factor.restrict(f, evidence));
+        }
+        List<Variable> decisions = network.getDecisions();
+        // the groups of variables, in the order of their elimination
+        LinkedList<LinkedList<Variable>> groups = new LinkedList<>();
+        BitSet known = new BitSet();
+        for (Variable d : decisions) {
+            if (evidence.contains(d)) {
+                throw new IllegalArgumentException("The decision " + d + " cannot be observed");
+            }
+            known.set(d.getId());
+            LinkedList<Variable> observed = new LinkedList<>();
+            for (Variable v : network.getObservedBefore(d)) {
+                if (!evidence.contains(v) && !known.get(v.getId())) {
+                    known.set(v.getId());
+                    observed.add(v);
+                }
+            }
+            LinkedList<Variable> decisionGroup = new LinkedList<>();
+            decisionGroup.add(d);
+            groups.addFirst(observed);
+            groups.addFirst(decisionGroup);
+        }
+        LinkedList<Variable> neverObserved = new LinkedList<>();
+        for (Variable v : variablesOf(probabilities, utilities)) {
+            if (!known.get(v.getId())) {
+                neverObserved.add(v);
+            }
+        }
+        groups.addFirst(neverObserved);
+
+        HashMap<Variable, Factor> policies = new HashMap<>();
+        HashMap<Variable, Factor> expectedUtilities = new HashMap<>();
+        for (LinkedList<Variable> group : groups) {
+            for (Variable v : order(group, probabilities, utilities)) {
+                if (decisions.contains(v)) {
+                    maxout(v, probabilities, utilities, policies, expectedUtilities);
+                } else {
+                    sumout(v, probabilities, utilities);
+                }
+            }
+        }
+        double meu = 0;
+        for (Factor u : utilities) {
+            meu += u.getValues()[0];
+        }
+        return new Strategy(decisions, policies, expectedUtilities, meu);
+    }
+
+    /**
+     * Computes the value of observing a chance variable just before a decision:
+     * how much the maximum expected utility increases when the decision can depend
+     * on the value of this variable.
+     * 
+     * @param network
+     *            The decision network to evaluate, which is not modified
+     * @param evidence
+     *            The values of some chance variables, known before all decisions
+     * @param decision
+     *            The decision that would be informed
+     * @param observation
+     *            The candidate observation
+     * @return The value of information of the observation, never negative.
+     */
+    public double valueOfInformation(DecisionNetwork network, Evidence evidence,
+            Variable decision, Variable observation) {
+        double informed = evaluate(network.withObservation(decision, observation), evidence)
+                .getMaximumExpectedUtility();
+        return informed - evaluate(network, evidence).getMaximumExpectedUtility();
+    }
+
+    /**
+     * Returns the variables of the given group in the order of their elimination,
+     * computed on the interaction graph of all the current potentials.
+     */
+    private LinkedList<Variable> order(LinkedList<Variable> group,
+            LinkedList<Factor> probabilities, LinkedList<Factor> utilities) {
+        if (group.size() <= 1) {
+            return group;
+        }
+        BitSet groupIds = new BitSet();
+        for (Variable v : group) {
+            groupIds.set(v.getId());
+        }
+        LinkedList<Variable> others = new LinkedList<>();
+        for (Variable v : variablesOf(probabilities, utilities)) {
+            if (!groupIds.get(v.getId())) {
+                others.add(v);
+            }
+        }
+        LinkedList<Factor> all = new LinkedList<>(probabilities);
+        all.addAll(utilities);
+        return EliminationPlan.compute(all, others, new LinkedList<Variable>(), heuristic)
+                .getOrder();
+    }
+
+    private static LinkedList<Variable> variablesOf(LinkedList<Factor> probabilities,
+            LinkedList<Factor> utilities) {
+        LinkedList<Factor> all = new LinkedList<>(probabilities);
+        all.addAll(utilities);
+        LinkedList<Variable> vars = new LinkedList<>();
+        BitSet ids = new BitSet();
+        for (Factor f : all) {
+            for (Variable v : f.getVariables()) {
+                if (!ids.get(v.getId())) {
+                    ids.set(v.getId());
+                    vars.add(v);
+                }
+            }
+        }
+        return vars;
+    }
+
+    /**
+     * Removes the factors containing v from the list, and returns them.
+     */
+    private static LinkedList<Factor> extract(Variable v, LinkedList<Factor> factors) {
+        LinkedList<Factor> extracted = new LinkedList<>();
+        for (Factor f : factors) {
+            if (f.contains(v)) {
+                extracted.add(f);
+            }
+        }
+        factors.removeAll(extracted);
+        return extracted;
+    }
+
+    /**
+     * Returns the sum of the utilities, or null if there are none.
+     */
+    private static Factor sum(LinkedList<Factor> utilities) {
+        Factor sum = null;
+        for (Factor u : utilities) {
+            sum = sum == null ? u : Factor.add(sum, u);
+        }
+        return sum;
+    }
+
+    /**
+     * Sums out the chance variable v from the potentials.
+     */
+    private static void sumout(Variable v, LinkedList<Factor> probabilities,
+            LinkedList<Factor> utilities) {
+        LinkedList<Factor> p = extract(v, probabilities);
+        Factor u = sum(extract(v, utilities));
+        if (p.isEmpty()) {
+            throw new IllegalArgumentException("The chance variable " + v
+                    + " has no conditional probability table");
+        }
+        Factor product = Factor.multiply(p);
+        Factor marginal = Factor.sumout(product, v);
+        probabilities.add(marginal);
+        if (u != null) {
+            Factor weighted = Factor.sumout(Factor.multiply(product, u), v);
+            utilities.add(Factor.divide(weighted, marginal));
+        }
+    }
+
+    /**
+     * Maxes out the decision d from the potentials, recording its optimal policy
+     * and its expected utilities.
+     */
+    private static void maxout(Variable d, LinkedList<Factor> probabilities,
+            LinkedList<Factor> utilities, HashMap<Variable, Factor> policies,
+            HashMap<Variable, Factor> expectedUtilities) {
+        LinkedList<Factor> p = extract(d, probabilities);
+        if (!p.isEmpty()) {
+            // the probabilities left do not depend on d anymore
+            probabilities.add(Factor.multiply(p).maxout(d));
+        }
+        Factor u = sum(extract(d, utilities));
+        if (u == null) {
+            // the decision does not matter
+            u = new Factor(d);
+            for (int i = 0; i < d.getCardinality(); i++) {
+                u.setValue(0, i);
+            }
+        }
+        int[] argmax = new int[u.getSize() / d.getCardinality()];
+        Factor best = new Factor(u).maxout(d, argmax);
+        utilities.add(best);
+        expectedUtilities.put(d, u);
+        policies.put(d, policy(u, d, argmax));
+    }
+
+    /**
+     * Returns the factor on the variables of u equal to 1 where d takes its
+     * maximizing value, and 0 elsewhere.
+     */
+    private static Factor policy(Factor u, Variable d, int[] argmax) {
+        List<Variable> vars = u.getVariables();
+        int position = vars.indexOf(d);
+        int stride = 1;
+        for (int i = 0; i < position; i++) {
+            stride *= vars.get(i).getCardinality();
+        }
+        double[] table = new double[u.getSize()];
+        for (int r = 0; r < argmax.length; r++) {
+            int low = r % stride;
+            int high = r / stride;
+            table[low + argmax[r] * stride + high * stride * d.getCardinality()] = 1;
+        }
+        Factor policy = new Factor(u.getVariables());
+        Scope scope = new Scope(u.getVariables());
+        for (int i = 0; i < table.length; i++) {
+            policy.setValue(table[i], new Assignment(scope, i));
+        }
+        return policy;
+    }
+}
@@ -0,0 +1,141 @@
+package algorithms;
+
+import java.util.Random;
+
+import math.BayesianNetwork;
+
+/**
+ * Estimates distributions by Gibbs sampling: each thread runs a Markov chain over
+ * the assignments consistent with the evidence, where each step draws again every
+ * unobserved variable given the current values of its Markov blanket (its parents,
+ * its children and the other parents of its children). Unlike likelihood
+ * weighting, the samples are not weighted, so unlikely evidence does not degrade
+ * the estimate.
+ * <p>
+ * The successive samples of a chain are correlated, so the confidence intervals
+ * of the estimate are computed by batch means: from the variance between the
+ * estimates of batches of successive samples of the chains, which accounts for the
+ * correlations shorter than a batch. Deterministic relations can also prevent a
+ * chain from reaching all the consistent assignments.
+ */
+public class GibbsSampling extends SamplingEngine {
+
+    // maximum number of forward samples drawn to find a consistent start
+    private static final int MAX_START_ATTEMPTS = 100000;
+
+    private final int burnIn;
+
+    /**
+     * Prepares the network for Gibbs sampling.
+     * 
+     * @param network
+     *            The network to sample
+     * @param threads
+     *            The number of threads, each running its own chain
+     * @param seed
+     *            The seed from which the random generator of each thread is seeded
+     * @param burnIn
+     *            The number of steps of each chain discarded before its samples
+     *            are counted
+     */
+    public GibbsSampling(BayesianNetwork network, int threads, long seed, int burnIn) {
+        super(network, threads, seed);
+        if (burnIn < 0) {
+            throw new IllegalArgumentException("the burn-in cannot be negative");
+        }
+        this.burnIn = burnIn;
+    }
+
+    @Override
+    Sampler newSampler(SamplingModel model, int[] observed, Random random) {
+        return new ChainSampler(model, observed, random, burnIn);
+    }
+
+    /**
+     * Runs a Markov chain, each sample being the state of the chain after a step.
+     */
+    static class ChainSampler extends Sampler {
+
+        private final SamplingModel model;
+        private final int[] observed;
+        private final Random random;
+        private final int burnIn;
+        // current state of the chain, null until it has started
+        private int[] state;
+        // unnormalized distribution of the variable being drawn
+        private final double[] distribution;
+
+        ChainSampler(SamplingModel model, int[] observed, Random random, int burnIn) {
+            this.model = model;
+            this.observed = observed;
+            this.random = random;
+            this.burnIn = burnIn;
+            int maxCardinality = 1;
+            for (int i = 0; i < model.variables.length; i++) {
+                maxCardinality = Math.max(maxCardinality, model.variables[i].getCardinality());
+            }
+            this.distribution = new double[maxCardinality];
+        }
+
+        @Override
+        double next(int[] sample) {
+            if (state == null) {
+                start();
+                for (int k = 0; k < burnIn; k++) {
+                    step();
+                }
+            }
+            step();
+            System.arraycopy(state, 0, sample, 0, state.length);
+            return 1;
+        }
+
+        @Override
+        boolean isCorrelated() {
+            return true;
+        }
+
+        /**
+         * Starts the chain from a forward sample consistent with the evidence.
+         */
+        private void start() {
+            LikelihoodWeighting.ForwardSampler forward = new LikelihoodWeighting.ForwardSampler(
+                    model, observed, random);
+            int[] initial = new int[model.variables.length];
+            for (int attempt = 0; attempt < MAX_START_ATTEMPTS; attempt++) {
+                if (forward.next(initial) > 0) {
+                    state = initial;
+                    return;
+                }
+            }
+            throw new RuntimeException("No assignment consistent with the evidence found after "
+                    + MAX_START_ATTEMPTS + " forward samples");
+        }
+
+        /**
+         * Draws again each unobserved variable given its Markov blanket.
+         */
+        private void step() {
+            for (int i = 0; i < state.length; i++) {
+                if (observed[i] >= 0) {
+                    continue;
+                }
+                int cardinality = model.variables[i].getCardinality();
+                for (int j = 0; j < cardinality; j++) {
+                    state[i] = j;
+                    double weight = model.probability(i, state);
+                    for (int c : model.children[i]) {
+                        weight *= model.probability(c, state);
+                    }
+                    distribution[j] = weight;
+                }
+                state[i] = SamplingModel.draw(distribution, cardinality, random);
+            }
+        }
+
+        @Override
+        int size() {
+            return model.variables.length;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package algorithms;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts non-negative values in buckets of exponentially growing bounds: the
+ * bucket {@code i} counts the values greater than {@code 2^(i-1)} and at most
+ * {@code 2^i}, the first one the values up to 1. Recording a value takes a few
+ * atomic increments and no allocation, and can be done by several threads.
+ */
+public final class Histogram {
+
+    private static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     * 
+     * @param value
+     *            The value, negative values are counted as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retried
+        }
+    }
+
+    private static int bucketOf(long value) {
+        if (value <= 1) {
+            return 0;
+        }
+        return 64 - Long.numberOfLeadingZeros(value - 1);
+    }
+
+    /**
+     * Returns the upper bound of the given bucket.
+     * 
+     * @param bucket
+     *            The index of the bucket, between 0 and {@link #getBucketCount()}
+     *            excluded
+     * @return the greatest value counted in the bucket
+     */
+    public static long getUpperBound(int bucket) {
+        return bucket >= 63 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public static int getBucketCount() {
+        return BUCKET_COUNT;
+    }
+
+    /**
+     * Returns the number of recorded values in the given bucket.
+     * 
+     * @param bucket
+     *            The index of the bucket, between 0 and {@link #getBucketCount()}
+     *            excluded
+     * @return the number of values counted in the bucket
+     */
+    public long getCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSum() {
+        return sum.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns an upper bound of the given percentile of the recorded values: the
+     * bound of the first bucket reaching it, or the maximum if it is lower.
+     * 
+     * @param fraction
+     *            The fraction of the values, between 0 and 1, such as 0.99
+     * @return a value above the given fraction of the recorded values, 0 if none is
+     *         recorded
+     */
+    public long getPercentile(double fraction) {
+        long rank = (long) Math.ceil(fraction * count.get());
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return Math.min(getUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram [count=" + count + ", sum=" + sum + ", p50=" + getPercentile(0.5)
+                + ", p99=" + getPercentile(0.99) + ", max=" + max + "]";
+    }
+}
@@ -0,0 +1,173 @@
+package algorithms;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import math.BayesianNetwork;
+import math.Evidence;
+import math.Factor;
+import math.Variable;
+
+/**
+ * A bounded cache of the results of the queries on one network, in front of an
+ * {@link InferenceEngine}. When the cache is full, the least recently used result
+ * is evicted. The cache can be shared by several threads. The hits and misses are
+ * also reported to the {@link Instrumentation} of the engine.
+ */
+public class InferenceCache {
+
+    private final InferenceEngine engine;
+    private final BayesianNetwork network;
+    private final LinkedHashMap<Key, Factor> results;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates an empty cache for the queries on the given network.
+     * 
+     * @param engine
+     *            The engine used to compute the results that are not in the cache
+     * @param network
+     *            The network to query
+     * @param capacity
+     *            The maximum number of results kept in the cache
+     */
+    public InferenceCache(InferenceEngine engine, BayesianNetwork network, final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("the capacity of the cache must be positive");
+        }
+        this.engine = engine;
+        this.network = network;
+        this.results = new LinkedHashMap<Key, Factor>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Factor> eldest) {
+                if (size() > capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the normalized distribution of the query variables given the
+     * evidence, from the cache if the same query has been answered before.
+     * 
+     * @param evidence
+     *            The observed values of some variables
+     * @param queryVariables
+     *            The variables we want to see in the resulting factor
+     * @return A new factor on the query variables.
+     * @see InferenceEngine#query(BayesianNetwork, Evidence, Variable...)
+     */
+    public Factor query(Evidence evidence, Variable... queryVariables) {
+        return query(evidence, true, queryVariables);
+    }
+
+    /**
+     * Returns the result of the query, from the cache if the same query has been
+     * answered before.
+     * 
+     * @param evidence
+     *            The observed values of some variables
+     * @param normalize
+     *            If {@code true}, the result is normalized.
+     * @param queryVariables
+     *            The variables we want to see in the resulting factor
+     * @return A new factor on the query variables, which can be modified without
+     *         affecting the cache.
+     * @see InferenceEngine#query(BayesianNetwork, Evidence, boolean, Variable...)
+     */
+    public Factor query(Evidence evidence, boolean normalize, Variable... queryVariables) {
+        Key key = new Key(Arrays.asList(queryVariables.clone()), evidence, normalize);
+        Factor result;
+        synchronized (results) {
+            result = results.get(key);
+        }
+        if (result != null) {
+            hits.incrementAndGet();
+            engine.getInstrumentation().cacheHit();
+        } else {
+            // computed outside of the lock, so that misses do not block each other
+            misses.incrementAndGet();
+            engine.getInstrumentation().cacheMiss();
+            result = engine.query(network, evidence, normalize, queryVariables);
+            synchronized (results) {
+                results.put(key, result);
+            }
+        }
+        return new Factor(result);
+    }
+
+    /**
+     * Removes all the results from the cache. The counters are not reset.
+     */
+    public void clear() {
+        synchronized (results) {
+            results.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "InferenceCache [size=" + size() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + "]";
+    }
+
+    /**
+     * Identifies a query on the network of this cache.
+     */
+    private static final class Key {
+        private final List<Variable> queryVariables;
+        private final Evidence evidence;
+        private final boolean normalize;
+
+        private Key(List<Variable> queryVariables, Evidence evidence, boolean normalize) {
+            this.queryVariables = queryVariables;
+            this.evidence = evidence;
+            this.normalize = normalize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return normalize == k.normalize && queryVariables.equals(k.queryVariables)
+                    && evidence.equals(k.evidence);
+        }
+
+        @Override
+        public int hashCode() {
+            return (queryVariables.hashCode() * 31 + evidence.hashCode()) * 31
+                    + (normalize ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package algorithms;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import math.BayesianNetwork;
+import math.EliminationHeuristic;
+import math.EliminationPlan;
+import math.Evidence;
+import math.Factor;
+import math.MostProbableExplanation;
+import math.QueryTrace;
+import math.Variable;
+import math.WideFactor;
+
+/**
+ * Answers queries on a {@link BayesianNetwork} by variable elimination. The engine
+ * has no mutable state and never modifies the network, so a single engine and a
+ * single network can serve concurrent queries. The queries can be observed by an
+ * {@link Instrumentation}, which observes nothing by default.
+ */
+public class InferenceEngine {
+
+    /**
+     * The size of the intermediate factors from which a query is computed with
+     * {@link WideFactor}s, off the heap: 2^26 entries, 512 MB.
+     */
+    public static final long OFF_HEAP_FACTOR_SIZE = 1L << 26;
+
+    private final EliminationHeuristic heuristic;
+    private final long maxFactorSize;
+    private final Instrumentation instrumentation;
+
+    /**
+     * Creates an engine using the min-fill heuristic, without limit on the size of
+     * the intermediate factors.
+     */
+    public InferenceEngine() {
+        this(EliminationHeuristic.MIN_FILL, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates an engine using the given heuristic to order the eliminations.
+     * 
+     * @param heuristic
+     *            The strategy used to compute the elimination order of each query
+     * @param maxFactorSize
+     *            The maximum number of entries of the intermediate factors: queries
+     *            whose plan predicts a larger factor are rejected before running.
+     */
+    public InferenceEngine(EliminationHeuristic heuristic, long maxFactorSize) {
+        this(heuristic, maxFactorSize, Instrumentation.NONE);
+    }
+
+    /**
+     * Creates an engine reporting its queries to the given instrumentation.
+     * 
+     * @param heuristic
+     *            The strategy used to compute the elimination order of each query
+     * @param maxFactorSize
+     *            The maximum number of entries of the intermediate factors: queries
+     *            whose plan predicts a larger factor are rejected before running.
+     * @param instrumentation
+     *            The instrumentation starting a trace for each query
+     */
+    public InferenceEngine(EliminationHeuristic heuristic, long maxFactorSize,
+            Instrumentation instrumentation) {
+        this.heuristic = heuristic;
+        this.maxFactorSize = maxFactorSize;
+        this.instrumentation = instrumentation;
+    }
+
+    public EliminationHeuristic getHeuristic() {
+        return heuristic;
+    }
+
+    public long getMaxFactorSize() {
+        return maxFactorSize;
+    }
+
+    public Instrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * Computes the normalized distribution of the query variables given the
+     * evidence.
+     * 
+     * @param network
+     *            The network to query, which is not modified
+     * @param evidence
+     *            The observed values of some variables
+     * @param queryVariables
+     *            The variables we want to see in the resulting factor
+     * @return A new factor on the query variables.
+     */
+    public Factor query(BayesianNetwork network, Evidence evidence, Variable... queryVariables) {
+        return query(network, evidence, true, queryVariables);
+    }
+
+    /**
+     * Computes the factor on the query variables obtained by variable elimination
+     * of all the other variables of the network, after restriction to the
+     * evidence. Only the factors relevant to the query are considered. When the
+     * plan of the query predicts a factor larger than {@link #OFF_HEAP_FACTOR_SIZE},
+     * the query is computed sequentially with {@link WideFactor}s. The trace of the
+     * query covers its restrictions and its planning as well as its eliminations.
+     * 
+     * @param network
+     *            The network to query, which is not modified
+     * @param evidence
+     *            The observed values of some variables
+     * @param normalize
+     *            If {@code true}, the result is normalized.
+     * @param queryVariables
+     *            The variables we want to see in the resulting factor
+     * @return A new factor on the query variables.
+     */
+    public Factor query(BayesianNetwork network, Evidence evidence, boolean normalize,
+            Variable... queryVariables) {
+        QueryTrace trace = instrumentation.startQuery();
+        long start = trace.isEnabled() ? System.nanoTime() : 0;
+        // the restricted factors are copies, the others are only read
+        LinkedList<Factor> factors = new LinkedList<>();
+        for (Factor f : network.getRelevantFactors(evidence, normalize, queryVariables)) {
+            factors.add(restrict(f, evidence, trace));
+        }
+        LinkedList<Variable> queryList = new LinkedList<>();
+        for (Variable v : queryVariables) {
+            queryList.add(v);
+        }
+        EliminationPlan plan = plan(factors, queryList);
+        QueryTrace steps = trace.isEnabled() ? new StepTrace(trace) : trace;
+        Factor result;
+        if (plan.getMaxFactorSize() > OFF_HEAP_FACTOR_SIZE) {
+            result = WideFactor.inference(factors, queryList, plan.getOrder(), normalize, steps);
+        } else {
+            result = eliminate(factors, queryList, plan.getOrder(), normalize, steps);
+        }
+        if (trace.isEnabled()) {
+            trace.finished(result, System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /**
+     * Restricts the factor f to the evidence like
+     * {@link Factor#restrict(Factor, Evidence)}, and reports each restriction to the
+     * trace.
+     */
+    static Factor restrict(Factor f, Evidence evidence, QueryTrace trace) {
+        if (!trace.isEnabled()) {
+            return Factor.restrict(f, evidence);
+        }
+        Factor res = f;
+        for (Variable v : f.getVariables()) {
+            if (evidence.contains(v)) {
+                if (res == f) {
+                    res = new Factor(f);
+                }
+                int value = evidence.getValueIndex(v);
+                res.restrict(v, value);
+                trace.restricted(res, v, value);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Computes the most probable explanation of the evidence: the jointly most
+     * likely values of all the unobserved variables of the network. The variables
+     * are maxed out instead of summed out, in an order computed like the one of a
+     * marginal query, so the cost is the same.
+     * 
+     * @param network
+     *            The network to query, which is not modified
+     * @param evidence
+     *            The observed values of some variables
+     * @return The most probable assignment of the unobserved variables.
+     */
+    public MostProbableExplanation mostProbableExplanation(BayesianNetwork network,
+            Evidence evidence) {
+        LinkedList<Factor> factors = new LinkedList<>();
+        for (Factor f : network.getFactors()) {
+            factors.add(Factor.restrict(f, evidence));
+        }
+        EliminationPlan plan = plan(factors, new LinkedList<Variable>());
+        return MostProbableExplanation.compute(factors, plan.getOrder());
+    }
+
+    /**
+     * Computes the elimination plan of the restricted factors, and rejects the
+     * query if its plan exceeds the maximum factor size.
+     */
+    private EliminationPlan plan(LinkedList<Factor> factors, LinkedList<Variable> queryList) {
+        LinkedList<Variable> noEvidence = new LinkedList<>();
+        EliminationPlan plan = EliminationPlan.compute(factors, queryList, noEvidence, heuristic);
+        if (plan.getMaxFactorSize() > maxFactorSize) {
+            throw new IllegalArgumentException("The query would create a factor of "
+                    + plan.getMaxFactorSize() + " entries, the limit is " + maxFactorSize);
+        }
+        return plan;
+    }
+
+    /**
+     * Eliminates the hidden variables from the factors, which are already
+     * restricted to the evidence. The factors of the list that are not copies
+     * belong to the network, and must not be modified.
+     * 
+     * @param factors
+     *            The factors restricted to the evidence. The list may be modified.
+     * @param queryVariables
+     *            The variables we want to see in the resulting factor
+     * @param order
+     *            The hidden variables, in the order of their elimination
+     * @param normalize
+     *            If {@code true}, the result is normalized.
+     * @param trace
+     *            The trace receiving the products and elimination steps. The query
+     *            is finished by {@link #query(BayesianNetwork, Evidence, boolean,
+     *            Variable...)}, so the calls to {@link QueryTrace#finished} are
+     *            ignored.
+     * @return A new factor on the query variables.
+     */
+    protected Factor eliminate(LinkedList<Factor> factors, LinkedList<Variable> queryVariables,
+            LinkedList<Variable> order, boolean normalize, QueryTrace trace) {
+        return Factor.inference(factors, queryVariables, order, new LinkedList<Variable>(),
+                normalize, trace);
+    }
+
+    /**
+     * Forwards the steps of a query to its trace, which is only finished once, by
+     * the engine, so that its duration includes the restrictions and the planning.
+     */
+    static class StepTrace implements QueryTrace {
+        private final QueryTrace trace;
+
+        StepTrace(QueryTrace trace) {
+            this.trace = trace;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return trace.isEnabled();
+        }
+
+        @Override
+        public void restricted(Factor factor, Variable v, int value) {
+            trace.restricted(factor, v, value);
+        }
+
+        @Override
+        public void multiplied(List<Factor> terms, Factor product) {
+            trace.multiplied(terms, product);
+        }
+
+        @Override
+        public void eliminated(Variable v, List<Factor> terms, Factor result, long nanos) {
+            trace.eliminated(v, terms, result, nanos);
+        }
+
+        @Override
+        public void eliminatedWide(Variable v, List<WideFactor> terms, WideFactor result,
+                long productSize, long nanos) {
+            trace.eliminatedWide(v, terms, result, productSize, nanos);
+        }
+
+        @Override
+        public void finished(Factor result, long nanos) {
+            // the query is finished by the engine
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package algorithms;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import math.Factor;
+import math.QueryTrace;
+import math.Variable;
+import math.WideFactor;
+
+/**
+ * An {@link Instrumentation} aggregating the metrics of all the observed queries
+ * into counters and histograms: the number of queries, products and elimination
+ * steps, the cache hits and misses, and for each query its number of products, the
+ * size of its largest intermediate factor and its duration, as well as the
+ * duration of each elimination step. The metrics can be read directly, or exported
+ * in the text format of Prometheus.
+ */
+public class InferenceMetrics implements Instrumentation {
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong products = new AtomicLong();
+    private final AtomicLong eliminations = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final Histogram productsPerQuery = new Histogram();
+    private final Histogram maxFactorSizes = new Histogram();
+    private final Histogram queryNanos = new Histogram();
+    private final Histogram stepNanos = new Histogram();
+
+    @Override
+    public QueryTrace startQuery() {
+        return new Trace();
+    }
+
+    @Override
+    public void cacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    @Override
+    public void cacheMiss() {
+        cacheMisses.incrementAndGet();
+    }
+
+    public long getQueries() {
+        return queries.get();
+    }
+
+    public long getProducts() {
+        return products.get();
+    }
+
+    public long getEliminations() {
+        return eliminations.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Returns the distribution of the number of products computed by a query.
+     * 
+     * @return the histogram of the products per query
+     */
+    public Histogram getProductsPerQuery() {
+        return productsPerQuery;
+    }
+
+    /**
+     * Returns the distribution of the number of entries of the largest factor
+     * computed by a query.
+     * 
+     * @return the histogram of the maximum intermediate factor sizes
+     */
+    public Histogram getMaxFactorSizes() {
+        return maxFactorSizes;
+    }
+
+    /**
+     * Returns the distribution of the durations of the queries, in nanoseconds.
+     * 
+     * @return the histogram of the query durations
+     */
+    public Histogram getQueryNanos() {
+        return queryNanos;
+    }
+
+    /**
+     * Returns the distribution of the durations of the elimination steps, in
+     * nanoseconds.
+     * 
+     * @return the histogram of the step durations
+     */
+    public Histogram getStepNanos() {
+        return stepNanos;
+    }
+
+    /**
+     * Exports the metrics in the text exposition format of Prometheus, each name
+     * starting with the given prefix.
+     * 
+     * @param prefix
+     *            The prefix of the names of the metrics, such as {@code "bayes_"}
+     * @return The metrics, one sample per line.
+     */
+    public String toPrometheusText(String prefix) {
+        StringBuilder sb = new StringBuilder();
+        appendCounter(sb, prefix + "queries_total", queries.get());
+        appendCounter(sb, prefix + "products_total", products.get());
+        appendCounter(sb, prefix + "eliminations_total", eliminations.get());
+        appendCounter(sb, prefix + "cache_hits_total", cacheHits.get());
+        appendCounter(sb, prefix + "cache_misses_total", cacheMisses.get());
+        appendHistogram(sb, prefix + "query_products", productsPerQuery);
+        appendHistogram(sb, prefix + "query_max_factor_size", maxFactorSizes);
+        appendHistogram(sb, prefix + "query_nanoseconds", queryNanos);
+        appendHistogram(sb, prefix + "elimination_step_nanoseconds", stepNanos);
+        return sb.toString();
+    }
+
+    private static void appendCounter(StringBuilder sb, String name, long value) {
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendHistogram(StringBuilder sb, String name, Histogram h) {
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+        // the buckets are cumulative, the empty ones above the maximum are omitted
+        long cumulated = 0;
+        for (int i = 0; i < Histogram.getBucketCount() && cumulated < h.getCount(); i++) {
+            cumulated += h.getCount(i);
+            sb.append(name).append("_bucket{le=\"").append(Histogram.getUpperBound(i))
+                    .append("\"} ").append(cumulated).append('\n');
+        }
+        sb.append(name).append("_bucket{le=\"+Inf\"} ").append(h.getCount()).append('\n');
+        sb.append(name).append("_sum ").append(h.getSum()).append('\n');
+        sb.append(name).append("_count ").append(h.getCount()).append('\n');
+    }
+
+    @Override
+    public String toString() {
+        return "InferenceMetrics [queries=" + queries + ", products=" + products
+                + ", eliminations=" + eliminations + ", cacheHits=" + cacheHits
+                + ", cacheMisses=" + cacheMisses + ", maxFactorSizes=" + maxFactorSizes
+                + ", queryNanos=" + queryNanos + "]";
+    }
+
+    /**
+     * Accumulates the metrics of one query, and adds them to the histograms when
+     * the query is finished.
+     */
+    private class Trace implements QueryTrace {
+        // the steps of a parallel query are reported by several threads
+        private final AtomicLong queryProducts = new AtomicLong();
+        private final AtomicLong maxFactorSize = new AtomicLong();
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public void restricted(Factor factor, Variable v, int value) {
+            // not measured
+        }
+
+        @Override
+        public void multiplied(List<Factor> terms, Factor product) {
+            recordProduct(product.getSize());
+        }
+
+        @Override
+        public void eliminated(Variable v, List<Factor> terms, Factor result, long nanos) {
+            eliminations.incrementAndGet();
+            stepNanos.record(nanos);
+        }
+
+        @Override
+        public void eliminatedWide(Variable v, List<WideFactor> terms, WideFactor result,
+                long productSize, long nanos) {
+            // the product is not stored, but it is the size the step works on
+            recordProduct(productSize);
+            if (v != null) {
+                eliminations.incrementAndGet();
+                stepNanos.record(nanos);
+            }
+        }
+
+        private void recordProduct(long size) {
+            products.incrementAndGet();
+            queryProducts.incrementAndGet();
+            long current;
+            while (size > (current = maxFactorSize.get())
+                    && !maxFactorSize.compareAndSet(current, size)) {
+                // retried
+            }
+        }
+
+        @Override
+        public void finished(Factor result, long nanos) {
+            queries.incrementAndGet();
+            productsPerQuery.record(queryProducts.get());
+            maxFactorSizes.record(maxFactorSize.get());
+            queryNanos.record(nanos);
+        }
+    }
+}
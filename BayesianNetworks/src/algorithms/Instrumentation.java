@@ -0,0 +1,56 @@
+package algorithms;
+
+import math.QueryTrace;
+
+/**
+ * Observes the queries answered by an {@link InferenceEngine} and by the caches in
+ * front of it. An engine starts a trace for each query it answers, and a cache
+ * reports its hits and misses to the instrumentation of its engine.
+ * <p>
+ * The engines use {@link #NONE} by default, which starts disabled traces: the
+ * queries then run without reporting nor timing anything. The implementations
+ * must be thread-safe, since an engine can answer concurrent queries.
+ * 
+ * @see InferenceMetrics
+ * @see TracePrinter
+ */
+public interface Instrumentation {
+
+    /**
+     * The instrumentation which observes nothing.
+     */
+    Instrumentation NONE = new Instrumentation() {
+        @Override
+        public QueryTrace startQuery() {
+            return QueryTrace.NONE;
+        }
+
+        @Override
+        public void cacheHit() {
+            // ignored
+        }
+
+        @Override
+        public void cacheMiss() {
+            // ignored
+        }
+    };
+
+    /**
+     * Called when a query starts.
+     * 
+     * @return The trace receiving the steps of the query, {@link QueryTrace#NONE}
+     *         to ignore them.
+     */
+    QueryTrace startQuery();
+
+    /**
+     * Called when a cache answers a query with a result it holds.
+     */
+    void cacheHit();
+
+    /**
+     * Called when a cache has to compute the result of a query.
+     */
+    void cacheMiss();
+}
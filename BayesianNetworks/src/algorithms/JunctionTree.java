@@ -0,0 +1,372 @@
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import math.BayesianNetwork;
+import math.EliminationHeuristic;
+import math.EliminationPlan;
+import math.Evidence;
+import math.Factor;
+import math.Variable;
+
+/**
+ * A junction tree compiled from a {@link BayesianNetwork}, to answer many marginal
+ * queries on the same network under different evidence.
+ * <p>
+ * The cliques are the ones created by variable elimination in the order of an
+ * {@link EliminationPlan}: the clique of a variable contains the variable and its
+ * neighbours at the time of its elimination, and its parent is the clique of the
+ * first of these neighbours to be eliminated. The messages between cliques are
+ * computed on demand and cached (Shafer-Shenoy scheme). When the evidence changes,
+ * only the messages coming from the cliques of the variables whose observation has
+ * changed are recomputed.
+ * <p>
+ * The methods of a junction tree are synchronized, so it can be shared by several
+ * threads.
+ */
+public class JunctionTree {
+
+    private final int size;
+    private final ArrayList<ArrayList<Variable>> cliques = new ArrayList<>();
+    private final int[] parents;
+    private final ArrayList<LinkedList<Integer>> children = new ArrayList<>();
+    // the clique of each variable, which is used to hold its evidence
+    private final HashMap<Variable, Integer> homeCliques = new HashMap<>();
+
+    // product of the factors of the network assigned to each clique
+    private final Factor[] basePotentials;
+    // basePotentials multiplied by the evidence indicators of each clique
+    private final Factor[] potentials;
+    // message from each clique to its parent, and from its parent to it
+    private final Factor[] upMessages;
+    private final Factor[] downMessages;
+
+    private Evidence evidence = Evidence.empty();
+    // whether the factors of the network are in log space
+    private final boolean logSpace;
+
+    /**
+     * Compiles the given network into a junction tree.
+     * 
+     * @param network
+     *            The network to compile
+     * @param heuristic
+     *            The strategy used to compute the elimination order defining the
+     *            cliques
+     */
+    public JunctionTree(BayesianNetwork network, EliminationHeuristic heuristic) {
+        LinkedList<Factor> factors = new LinkedList<>(network.getFactors());
+        logSpace = !factors.isEmpty() && factors.getFirst().isLogSpace();
+        LinkedList<Variable> none = new LinkedList<>();
+        LinkedList<Variable> order = EliminationPlan.compute(factors, none, none, heuristic)
+                .getOrder();
+        size = order.size();
+        parents = new int[size];
+        basePotentials = new Factor[size];
+        potentials = new Factor[size];
+        upMessages = new Factor[size];
+        downMessages = new Factor[size];
+        buildCliques(factors, order);
+        assignFactors(factors);
+    }
+
+    /**
+     * Simulates the elimination of the variables in the given order, to create the
+     * cliques and link them.
+     */
+    private void buildCliques(LinkedList<Factor> factors, LinkedList<Variable> order) {
+        HashMap<Variable, BitSet> neighbours = new HashMap<>();
+        HashMap<Integer, Variable> variablesById = new HashMap<>();
+        for (Variable v : order) {
+            neighbours.put(v, new BitSet());
+            variablesById.put(v.getId(), v);
+        }
+        for (Factor f : factors) {
+            BitSet scope = new BitSet();
+            for (Variable v : f.getVariables()) {
+                scope.set(v.getId());
+            }
+            for (Variable v : f.getVariables()) {
+                neighbours.get(v).or(scope);
+            }
+        }
+        BitSet eliminated = new BitSet();
+        int i = 0;
+        for (Variable v : order) {
+            BitSet clique = neighbours.get(v);
+            clique.andNot(eliminated);
+            clique.set(v.getId());
+            ArrayList<Variable> cliqueVars = new ArrayList<>();
+            cliqueVars.add(v);
+            for (int id = clique.nextSetBit(0); id >= 0; id = clique.nextSetBit(id + 1)) {
+                if (id != v.getId()) {
+                    Variable neighbour = variablesById.get(id);
+                    cliqueVars.add(neighbour);
+                    neighbours.get(neighbour).or(clique);
+                }
+            }
+            cliques.add(cliqueVars);
+            children.add(new LinkedList<Integer>());
+            homeCliques.put(v, i);
+            eliminated.set(v.getId());
+            i++;
+        }
+        // the parent of a clique is the clique of its first neighbour eliminated
+        for (int c = 0; c < size; c++) {
+            int parent = -1;
+            ArrayList<Variable> clique = cliques.get(c);
+            for (int k = 1; k < clique.size(); k++) {
+                int home = homeCliques.get(clique.get(k));
+                if (parent < 0 || home < parent) {
+                    parent = home;
+                }
+            }
+            parents[c] = parent;
+            if (parent >= 0) {
+                children.get(parent).add(c);
+            }
+        }
+    }
+
+    /**
+     * Multiplies each factor of the network into the clique of the first of its
+     * variables to be eliminated, which contains all of them.
+     */
+    private void assignFactors(LinkedList<Factor> factors) {
+        ArrayList<LinkedList<Factor>> assigned = new ArrayList<>();
+        for (int c = 0; c < size; c++) {
+            LinkedList<Factor> terms = new LinkedList<>();
+            // unit factors so that the potential spans the whole clique
+            for (Variable v : cliques.get(c)) {
+                terms.add(unit(v));
+            }
+            assigned.add(terms);
+        }
+        for (Factor f : factors) {
+            int home = size;
+            for (Variable v : f.getVariables()) {
+                home = Math.min(home, homeCliques.get(v));
+            }
+            assigned.get(home).add(f);
+        }
+        for (int c = 0; c < size; c++) {
+            basePotentials[c] = Factor.multiply(assigned.get(c));
+            potentials[c] = basePotentials[c];
+        }
+    }
+
+    /**
+     * Returns the number of cliques of this tree.
+     * 
+     * @return the number of cliques of this tree
+     */
+    public int getCliqueCount() {
+        return size;
+    }
+
+    /**
+     * Returns the variables of the largest clique of this tree.
+     * 
+     * @return the variables of the largest clique of this tree
+     */
+    public List<Variable> getLargestClique() {
+        ArrayList<Variable> largest = new ArrayList<>();
+        for (ArrayList<Variable> clique : cliques) {
+            if (clique.size() > largest.size()) {
+                largest = clique;
+            }
+        }
+        return new ArrayList<>(largest);
+    }
+
+    /**
+     * Computes all the messages of the tree for the current evidence: first from
+     * the leaves to the roots, then back from the roots to the leaves. Once
+     * calibrated, the marginal of any variable is obtained without computing any
+     * new message.
+     */
+    public synchronized void calibrate() {
+        for (int c = 0; c < size; c++) {
+            if (parents[c] >= 0) {
+                upMessage(c);
+            }
+        }
+        for (int c = size - 1; c >= 0; c--) {
+            if (parents[c] >= 0) {
+                downMessage(c);
+            }
+        }
+    }
+
+    /**
+     * Computes the normalized distribution of v given the evidence. Only the
+     * messages invalidated by the changes of evidence since the previous query are
+     * recomputed.
+     * 
+     * @param v
+     *            The query variable
+     * @param newEvidence
+     *            The observed values of some variables
+     * @return A new factor on v.
+     */
+    public synchronized Factor marginal(Variable v, Evidence newEvidence) {
+        Integer home = homeCliques.get(v);
+        if (home == null) {
+            throw new IllegalArgumentException("The variable " + v + " is not in the network");
+        }
+        setEvidence(newEvidence);
+        Factor belief = Factor.multiply(incomingMessages(home, -1));
+        for (Variable other : cliques.get(home)) {
+            if (!other.equals(v)) {
+                belief.sumout(other);
+            }
+        }
+        return belief.normalize();
+    }
+
+    /**
+     * Updates the evidence, invalidating the potentials and messages depending on
+     * the observations that have changed.
+     */
+    private void setEvidence(Evidence newEvidence) {
+        BitSet changedCliques = new BitSet();
+        for (Variable v : newEvidence.getVariables()) {
+            if (!evidence.contains(v)
+                    || evidence.getValueIndex(v) != newEvidence.getValueIndex(v)) {
+                changedCliques.set(homeClique(v));
+            }
+        }
+        for (Variable v : evidence.getVariables()) {
+            if (!newEvidence.contains(v)) {
+                changedCliques.set(homeClique(v));
+            }
+        }
+        evidence = newEvidence;
+        for (int c = changedCliques.nextSetBit(0); c >= 0; c = changedCliques.nextSetBit(c + 1)) {
+            potentials[c] = null;
+            invalidateMessagesFrom(c);
+        }
+    }
+
+    private int homeClique(Variable v) {
+        Integer home = homeCliques.get(v);
+        if (home == null) {
+            throw new IllegalArgumentException("The variable " + v + " is not in the network");
+        }
+        return home;
+    }
+
+    /**
+     * Invalidates the messages going away from the clique c: the messages to the
+     * parents of its ancestors, and the messages to the children of all the other
+     * cliques.
+     */
+    private void invalidateMessagesFrom(int c) {
+        BitSet path = new BitSet();
+        for (int a = c; a >= 0; a = parents[a]) {
+            path.set(a);
+            upMessages[a] = null;
+        }
+        for (int x = 0; x < size; x++) {
+            if (!path.get(x)) {
+                downMessages[x] = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the potential of the clique c multiplied by the indicators of the
+     * evidence on its own variables.
+     */
+    private Factor potential(int c) {
+        if (potentials[c] == null) {
+            Factor potential = basePotentials[c];
+            for (Variable v : evidence.getVariables()) {
+                if (homeCliques.get(v) == c) {
+                    if (potential == basePotentials[c]) {
+                        potential = new Factor(potential);
+                    }
+                    potential.multiply(indicator(v, evidence.getValueIndex(v)));
+                }
+            }
+            potentials[c] = potential;
+        }
+        return potentials[c];
+    }
+
+    /**
+     * Returns a factor on v equal to 1 for the value of the given index and 0 for
+     * the others, in the space of the network.
+     */
+    private Factor indicator(Variable v, int value) {
+        Factor indicator = new Factor(v);
+        for (int i = 0; i < v.getCardinality(); i++) {
+            indicator.setValue(i == value ? 1 : 0, i);
+        }
+        return logSpace ? indicator.toLogSpace() : indicator;
+    }
+
+    /**
+     * Returns a factor on v equal to 1 for all its values, in the space of the
+     * network.
+     */
+    private Factor unit(Variable v) {
+        Factor unit = new Factor(v);
+        for (int i = 0; i < v.getCardinality(); i++) {
+            unit.setValue(1, i);
+        }
+        return logSpace ? unit.toLogSpace() : unit;
+    }
+
+    /**
+     * Returns the messages received by the clique c from all its neighbours except
+     * the clique excluded.
+     */
+    private LinkedList<Factor> incomingMessages(int c, int excluded) {
+        LinkedList<Factor> messages = new LinkedList<>();
+        messages.add(potential(c));
+        for (int child : children.get(c)) {
+            if (child != excluded) {
+                messages.add(upMessage(child));
+            }
+        }
+        if (parents[c] >= 0 && parents[c] != excluded) {
+            messages.add(downMessage(c));
+        }
+        return messages;
+    }
+
+    private Factor upMessage(int c) {
+        if (upMessages[c] == null) {
+            upMessages[c] = message(c, parents[c]);
+        }
+        return upMessages[c];
+    }
+
+    private Factor downMessage(int c) {
+        if (downMessages[c] == null) {
+            downMessages[c] = message(parents[c], c);
+        }
+        return downMessages[c];
+    }
+
+    /**
+     * Computes the message from the clique "from" to its neighbour "to": the
+     * product of its potential and its other incoming messages, where the variables
+     * that are not in "to" are summed out.
+     */
+    private Factor message(int from, int to) {
+        Factor product = Factor.multiply(incomingMessages(from, to));
+        ArrayList<Variable> target = cliques.get(to);
+        for (Variable v : cliques.get(from)) {
+            if (!target.contains(v)) {
+                product.sumout(v);
+            }
+        }
+        return product;
+    }
+}
@@ -0,0 +1,98 @@
+package algorithms;
+
+import java.util.Random;
+
+import math.BayesianNetwork;
+
+/**
+ * Estimates distributions by likelihood weighting: each sample is drawn forward,
+ * from the parents to the children, with the observed variables fixed to their
+ * value instead of being drawn, and is weighted by the probability of these
+ * observations given its other values. Without evidence, this is plain forward
+ * sampling and all the weights are 1.
+ * <p>
+ * The estimate degrades when the evidence is unlikely, because most samples then
+ * get a tiny weight.
+ */
+public class LikelihoodWeighting extends SamplingEngine {
+
+    /**
+     * Prepares the network for likelihood weighting.
+     * 
+     * @param network
+     *            The network to sample
+     * @param threads
+     *            The number of threads drawing samples in each run
+     * @param seed
+     *            The seed from which the random generator of each thread is seeded
+     */
+    public LikelihoodWeighting(BayesianNetwork network, int threads, long seed) {
+        super(network, threads, seed);
+    }
+
+    @Override
+    Sampler newSampler(SamplingModel model, int[] observed, Random random) {
+        return new ForwardSampler(model, observed, random);
+    }
+
+    /**
+     * Draws weighted samples from the parents to the children.
+     */
+    static class ForwardSampler extends Sampler {
+
+        private final SamplingModel model;
+        private final int[] observed;
+        private final Random random;
+
+        ForwardSampler(SamplingModel model, int[] observed, Random random) {
+            this.model = model;
+            this.observed = observed;
+            this.random = random;
+        }
+
+        @Override
+        double next(int[] sample) {
+            double weight = 1;
+            for (int i = 0; i < sample.length; i++) {
+                if (observed[i] >= 0) {
+                    sample[i] = observed[i];
+                    weight *= model.probability(i, sample);
+                    if (weight == 0) {
+                        return 0;
+                    }
+                } else {
+                    sample[i] = drawValue(i, sample);
+                }
+            }
+            return weight;
+        }
+
+        /**
+         * Draws a value of the variable i given the values of its parents in the
+         * sample.
+         */
+        private int drawValue(int i, int[] sample) {
+            double[] table = model.tables[i];
+            int row = model.row(i, sample);
+            int cardinality = model.variables[i].getCardinality();
+            double r = random.nextDouble();
+            int last = 0;
+            for (int j = 0; j < cardinality; j++) {
+                if (table[row + j] > 0) {
+                    last = j;
+                    r -= table[row + j];
+                    if (r < 0) {
+                        return j;
+                    }
+                }
+            }
+            // rounding errors
+            return last;
+        }
+
+        @Override
+        int size() {
+            return model.variables.length;
+        }
+    }
+}
@@ -2,6 +2,10 @@ package algorithms;
 
 import java.util.LinkedList;
 
+import math.BayesianNetwork;
+import math.DecisionNetwork;
+import math.EliminationHeuristic;
+import math.Evidence;
 import math.Factor;
 import math.Variable;
 
@@ -14,10 +18,9 @@ public class Main {
     private static Variable IP = new Variable("IP");
     private static Variable CRP = new Variable("CRP");
 
-    private static LinkedList<Factor> factors;
-    private static LinkedList<Variable> orderedVariables;
-    private static LinkedList<Variable> queryVariables = new LinkedList<>();
-    private static LinkedList<Variable> evidence = new LinkedList<>();
+    // prints the elimination steps, to follow the answers by hand
+    private static InferenceEngine engine = new InferenceEngine(EliminationHeuristic.MIN_FILL,
+            Long.MAX_VALUE, new TracePrinter(System.out));
 
     private static void printFactor(String text, Factor f) {
         System.out.println(text + "\n" + f.toFullString() + "\n");
@@ -27,200 +30,88 @@ public class Main {
         System.out.println("======= " + text + " =======");
     }
 
-    public static Factor query() {
-        return query(true);
-    }
-
-    public static Factor query(boolean normalize) {
-        LinkedList<Factor> factorsCopy = new LinkedList<>();
-        for (Factor f : factors) {
-            factorsCopy.add(new Factor(f));
-        }
-        return Factor.inference(factorsCopy, queryVariables, orderedVariables, evidence, normalize);
-    }
-
     public static void main(String args[]) {
 
-        // the factors and variable elimination order will not change
-        setOrderedVariables(Trav, FP, Fraud, IP, OC, CRP);
-        generateCreditCardProblemFactors();
-        // other initializations
-        queryVariables = new LinkedList<>();
-        evidence = new LinkedList<>();
+        // the network will not change, only the evidence does
+        BayesianNetwork network = new BayesianNetwork(generateCreditCardProblemFactors());
+        InferenceCache cache = new InferenceCache(engine, network, 16);
+        Evidence evidence;
         Factor result;
 
         answer("2.b. Prior proba");
-        initInferenceListsAndVars();
-        queryVariables.add(Fraud);
-        result = query();
+        result = cache.query(Evidence.empty(), Fraud);
         printFactor("\nP(Fraud):", result);
 
         answer("2.b. Proba with evidence");
-        initInferenceListsAndVars();
-        FP.set(true);
-        IP.set(false);
-        CRP.set(true);
-        evidence.add(FP);
-        evidence.add(IP);
-        evidence.add(CRP);
-        queryVariables.add(Fraud);
-        result = query();
+        evidence = Evidence.empty().with(FP, true).with(IP, false).with(CRP, true);
+        result = cache.query(evidence, Fraud);
         printFactor("\nP(Fraud | fp, ~ip, crp):", result);
 
         answer("2.c. Proba with more evidence");
-        initInferenceListsAndVars();
-        FP.set(true);
-        IP.set(false);
-        CRP.set(true);
-        Trav.set(true);
-        evidence.add(FP);
-        evidence.add(IP);
-        evidence.add(CRP);
-        evidence.add(Trav);
-        queryVariables.add(Fraud);
-        result = query();
+        evidence = evidence.with(Trav, true);
+        result = cache.query(evidence, Fraud);
         printFactor("\nP(Fraud | fp, ~ip, crp, trav):", result);
 
         answer("2.d. Comparison");
+        Evidence[] comparedEvidences = {
+                Evidence.empty().with(IP, true).with(CRP, false).with(FP, false),
+                Evidence.empty().with(IP, true).with(CRP, true).with(FP, false),
+                Evidence.empty().with(IP, true).with(CRP, false).with(FP, true),
+                Evidence.empty().with(IP, true).with(CRP, true).with(FP, true),
+                Evidence.empty().with(IP, true).with(CRP, true).with(FP, true).with(Trav, true),
+                Evidence.empty().with(IP, false).with(CRP, false).with(FP, false),
+                Evidence.empty().with(IP, false).with(CRP, true).with(FP, false),
+                // the evidence of 2.b, answered from the cache
+                Evidence.empty().with(IP, false).with(CRP, true).with(FP, true), };
+        for (Evidence compared : comparedEvidences) {
+            result = cache.query(compared, Fraud);
+            printFactor("\nP(Fraud | " + compared + "):", result);
+        }
+        System.out.println(cache + "\n");
+
+        answer("2.d. Comparison in a single batch");
+        BatchInference batch = new BatchInference(engine, network, new Variable[] { Fraud },
+                new Variable[] { IP, CRP, FP });
+        boolean[][] columns = { { true, true, true, true, false, false },
+                { false, true, false, true, false, true },
+                { false, false, true, true, false, false } };
+        double[] posteriors = batch.posteriors(columns);
+        for (int r = 0; r < columns[0].length; r++) {
+            System.out.println(batch + " for row " + r + ": P(fraud) = " + posteriors[2 * r + 1]);
+        }
+        System.out.println();
 
-        initInferenceListsAndVars();
-        IP.set(true);
-        CRP.set(false);
-        FP.set(false);
-        evidence.add(IP);
-        evidence.add(CRP);
-        evidence.add(FP);
-        queryVariables.add(Fraud);
-        result = query();
-        printFactor("\nP(Fraud | ip, ~crp, ~fp):", result);
-
-        initInferenceListsAndVars();
-        IP.set(true);
-        CRP.set(true);
-        FP.set(false);
-        evidence.add(IP);
-        evidence.add(CRP);
-        evidence.add(FP);
-        queryVariables.add(Fraud);
-        result = query();
-        printFactor("\nP(Fraud | ip, crp, ~fp):", result);
-
-        initInferenceListsAndVars();
-        IP.set(true);
-        CRP.set(false);
-        FP.set(true);
-        evidence.add(IP);
-        evidence.add(CRP);
-        evidence.add(FP);
-        queryVariables.add(Fraud);
-        result = query();
-        printFactor("\nP(Fraud | ip, ~crp, fp):", result);
-
-        initInferenceListsAndVars();
-        IP.set(true);
-        CRP.set(true);
-        FP.set(true);
-        evidence.add(IP);
-        evidence.add(CRP);
-        evidence.add(FP);
-        queryVariables.add(Fraud);
-        result = query();
-        printFactor("\nP(Fraud | ip, crp, fp):", result);
-
-        initInferenceListsAndVars();
-        IP.set(true);
-        CRP.set(true);
-        FP.set(true);
-        Trav.set(true);
-        evidence.add(IP);
-        evidence.add(CRP);
-        evidence.add(FP);
-        evidence.add(Trav);
-        queryVariables.add(Fraud);
-        result = query();
-        printFactor("\nP(Fraud | ip, crp, fp, trav):", result);
-
-        initInferenceListsAndVars();
-        IP.set(false);
-        CRP.set(false);
-        FP.set(false);
-        evidence.add(IP);
-        evidence.add(CRP);
-        evidence.add(FP);
-        queryVariables.add(Fraud);
-        result = query();
-        printFactor("\nP(Fraud | ~ip, ~crp, ~fp):", result);
-
-        initInferenceListsAndVars();
-        IP.set(false);
-        CRP.set(true);
-        FP.set(false);
-        evidence.add(IP);
-        evidence.add(CRP);
-        evidence.add(FP);
-        queryVariables.add(Fraud);
-        result = query();
-        printFactor("\nP(Fraud | ~ip, crp, ~fp):", result);
+        answer("Most probable explanation of a fraud alert");
+        evidence = Evidence.empty().with(FP, true).with(IP, false).with(CRP, true);
+        System.out.println("MPE(" + evidence + ") = "
+                + engine.mostProbableExplanation(network, evidence) + "\n");
 
         answer("3.b");
-        setOrderedVariables(Trav, FP, Fraud, IP, OC, CRP);
-        generateCreditCardProblemFactors();
         Variable Block = new Variable("Block");
         Factor U = new Factor(Fraud, Block);
-        factors.add(U);
         U.setValue(0, true, true);
         U.setValue(-1000, true, false);
         U.setValue(-10, false, true);
         U.setValue(5, false, false);
+        BayesianNetwork networkWithU = network.with(U);
 
-        initInferenceListsAndVars();
-        queryVariables.add(Block);
-        result = query(false);
+        result = engine.query(networkWithU, Evidence.empty(), false, Block);
         printFactor("\nEU(Block):", result);
 
-        initInferenceListsAndVars();
-        IP.set(false);
-        CRP.set(true);
-        FP.set(true);
-        evidence.add(IP);
-        evidence.add(CRP);
-        evidence.add(FP);
-        queryVariables.add(Block);
-        result = query(false);
+        evidence = Evidence.empty().with(IP, false).with(CRP, true).with(FP, true);
+        result = engine.query(networkWithU, evidence, false, Block);
         printFactor("\nEU(Block | ~ip, crp, fp):", result);
 
-        initInferenceListsAndVars();
-        IP.set(false);
-        CRP.set(true);
-        FP.set(true);
-        Trav.set(true);
-        evidence.add(IP);
-        evidence.add(CRP);
-        evidence.add(FP);
-        evidence.add(Trav);
-        queryVariables.add(Block);
-        result = query(false);
+        result = engine.query(networkWithU, evidence.with(Trav, true), false, Block);
         printFactor("\nEU(Block | ~ip, crp, fp, trav):", result);
 
-        initInferenceListsAndVars();
-        IP.set(false);
-        CRP.set(true);
-        FP.set(true);
-        Trav.set(false);
-        evidence.add(IP);
-        evidence.add(CRP);
-        evidence.add(FP);
-        evidence.add(Trav);
-        queryVariables.add(Block);
-        result = query(false);
+        result = engine.query(networkWithU, evidence.with(Trav, false), false, Block);
         printFactor("\nEU(Block | ~ip, crp, fp, ~trav):", result);
 
         answer("3.c");
 
         Variable Call = new Variable("Call");
         Factor newU = new Factor(Fraud, Trav, Call);
-        factors.remove(U);
-        factors.add(newU);
         newU.setValue(0, true, false, true);
         newU.setValue(-1000, true, true, true);
         newU.setValue(-10, false, false, true);
@@ -229,39 +120,24 @@ public class Main {
         newU.setValue(0, true, true, false);
         newU.setValue(-10, false, false, false);
         newU.setValue(-10, false, true, false);
-        initInferenceListsAndVars();
-        IP.set(false);
-        CRP.set(true);
-        FP.set(true);
-        evidence.add(IP);
-        evidence.add(CRP);
-        evidence.add(FP);
-        queryVariables.add(Call);
-        result = query(false);
+        BayesianNetwork networkWithNewU = network.with(newU);
+        result = engine.query(networkWithNewU, evidence, false, Call);
         printFactor("\nEU(Call | ~ip, crp, fp):", result);
         System.out.println("EVI = " + (result.getValue(true) - result.getValue(false)));
-    }
-
-    private static void initInferenceListsAndVars() {
-        Trav.reset();
-        Fraud.reset();
-        FP.reset();
-        OC.reset();
-        IP.reset();
-        CRP.reset();
-        queryVariables.clear();
-        evidence.clear();
-        System.out.println("***** Inference initialized *****\n");
-    }
 
-    private static void setOrderedVariables(Variable... vars) {
-        orderedVariables = new LinkedList<>();
-        for (Variable var : vars) {
-            orderedVariables.add(var);
-        }
+        answer("Decision network of the blocking of a card");
+        DecisionEvaluator evaluator = new DecisionEvaluator(EliminationHeuristic.MIN_FILL);
+        DecisionNetwork decisionNetwork = new DecisionNetwork(network).withDecision(Block)
+                .withUtility(U);
+        System.out.println(evaluator.evaluate(decisionNetwork, evidence) + "\n");
+        System.out.println(evaluator.evaluate(decisionNetwork.withObservation(Block, Trav),
+                evidence) + "\n");
+        System.out.println("VOI(Trav) = "
+                + evaluator.valueOfInformation(decisionNetwork, evidence, Block, Trav));
     }
 
-    private static void generateCreditCardProblemFactors() {
+    private static LinkedList<Factor> generateCreditCardProblemFactors() {
+        LinkedList<Factor> factors = new LinkedList<>();
         Factor factorTrav = new Factor(Trav);
         factorTrav.setValue(0.05, true);
         factorTrav.setValue(0.95, false);
@@ -314,5 +190,6 @@ public class Main {
         factors.add(factorIP);
         factors.add(factorFP);
         factors.add(factorCRP);
+        return factors;
     }
 }
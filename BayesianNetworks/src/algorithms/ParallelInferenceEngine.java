@@ -0,0 +1,185 @@
+package algorithms;
+
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import math.EliminationHeuristic;
+import math.Factor;
+import math.FactorBuckets;
+import math.ParallelFactors;
+import math.QueryTrace;
+import math.Variable;
+
+/**
+ * An {@link InferenceEngine} running variable elimination on a
+ * {@link ForkJoinPool}.
+ * <p>
+ * Each elimination step multiplies some factors and sums out a variable. Its
+ * terms are either factors of the network or the results of previous steps, which
+ * makes the steps form a tree: the steps of independent subtrees are computed
+ * concurrently. In addition, the products and sums out of large factors are split
+ * into chunks of indices computed concurrently.
+ */
+public class ParallelInferenceEngine extends InferenceEngine {
+
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 14;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    /**
+     * Creates an engine using the common pool, the min-fill heuristic, and no
+     * limit on the size of the intermediate factors.
+     */
+    public ParallelInferenceEngine() {
+        this(ForkJoinPool.commonPool(), EliminationHeuristic.MIN_FILL, Long.MAX_VALUE,
+                DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates an engine running its computations on the given pool.
+     * 
+     * @param pool
+     *            The pool running the elimination steps
+     * @param heuristic
+     *            The strategy used to compute the elimination order of each query
+     * @param maxFactorSize
+     *            The maximum number of entries of the intermediate factors: queries
+     *            whose plan predicts a larger factor are rejected before running.
+     * @param chunkSize
+     *            The number of entries of a factor computed by a single task
+     */
+    public ParallelInferenceEngine(ForkJoinPool pool, EliminationHeuristic heuristic,
+            long maxFactorSize, int chunkSize) {
+        this(pool, heuristic, maxFactorSize, chunkSize, Instrumentation.NONE);
+    }
+
+    /**
+     * Creates an engine running its computations on the given pool, and reporting
+     * its queries to the given instrumentation. The steps of a query are reported
+     * by the threads of the pool.
+     * 
+     * @param pool
+     *            The pool running the elimination steps
+     * @param heuristic
+     *            The strategy used to compute the elimination order of each query
+     * @param maxFactorSize
+     *            The maximum number of entries of the intermediate factors: queries
+     *            whose plan predicts a larger factor are rejected before running.
+     * @param chunkSize
+     *            The number of entries of a factor computed by a single task
+     * @param instrumentation
+     *            The instrumentation starting a trace for each query
+     */
+    public ParallelInferenceEngine(ForkJoinPool pool, EliminationHeuristic heuristic,
+            long maxFactorSize, int chunkSize, Instrumentation instrumentation) {
+        super(heuristic, maxFactorSize, instrumentation);
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    protected Factor eliminate(LinkedList<Factor> factors, LinkedList<Variable> queryVariables,
+            LinkedList<Variable> order, boolean normalize, QueryTrace trace) {
+        // build the elimination tree: each step replaces the terms containing its
+        // variable by its own result
+        FactorBuckets<EliminationStep> terms = new FactorBuckets<>();
+        for (Factor f : factors) {
+            terms.add(new EliminationStep(f, trace), f.getVariableIds());
+        }
+        for (Variable v : order) {
+            LinkedList<EliminationStep> affected = new LinkedList<>();
+            terms.take(v, affected);
+            if (affected.isEmpty()) {
+                continue;
+            }
+            EliminationStep step = new EliminationStep(v, affected, trace);
+            terms.add(step, step.getVariableIds());
+        }
+        Factor result = pool.invoke(new EliminationStep(null, terms.getFactors(), trace));
+        if (normalize) {
+            result.normalize();
+        }
+        return result;
+    }
+
+    /**
+     * A node of the elimination tree: the product of its terms where the variable
+     * is summed out (if any), or a factor that is already computed.
+     */
+    private class EliminationStep extends RecursiveTask<Factor> {
+        private static final long serialVersionUID = 1L;
+
+        private final Variable variable;
+        private final LinkedList<EliminationStep> terms;
+        private final Factor factor;
+        private final QueryTrace trace;
+        // IDs of the variables of the resulting factor
+        private final BitSet scope = new BitSet();
+
+        EliminationStep(Factor factor, QueryTrace trace) {
+            this.variable = null;
+            this.terms = new LinkedList<>();
+            this.factor = factor;
+            this.trace = trace;
+            for (int id : factor.getVariableIds()) {
+                scope.set(id);
+            }
+        }
+
+        EliminationStep(Variable variable, LinkedList<EliminationStep> terms,
+                QueryTrace trace) {
+            this.variable = variable;
+            this.terms = terms;
+            this.factor = null;
+            this.trace = trace;
+            for (EliminationStep term : terms) {
+                scope.or(term.scope);
+            }
+            if (variable != null) {
+                scope.clear(variable.getId());
+            }
+        }
+
+        /**
+         * Returns the IDs of the variables of the resulting factor, in increasing
+         * order.
+         */
+        int[] getVariableIds() {
+            int[] ids = new int[scope.cardinality()];
+            int k = 0;
+            for (int id = scope.nextSetBit(0); id >= 0; id = scope.nextSetBit(id + 1)) {
+                ids[k++] = id;
+            }
+            return ids;
+        }
+
+        @Override
+        protected Factor compute() {
+            if (factor != null) {
+                return factor;
+            }
+            invokeAll(terms);
+            LinkedList<Factor> factors = new LinkedList<>();
+            for (EliminationStep term : terms) {
+                factors.add(term.join());
+            }
+            boolean traced = trace.isEnabled();
+            long start = traced ? System.nanoTime() : 0;
+            Factor product = ParallelFactors.multiply(factors, pool, chunkSize);
+            if (traced) {
+                trace.multiplied(factors, product);
+            }
+            if (variable == null) {
+                return product;
+            }
+            Factor result = ParallelFactors.sumout(product, variable, pool, chunkSize);
+            if (traced) {
+                trace.eliminated(variable, factors, result, System.nanoTime() - start);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package algorithms;
+
+import java.util.Random;
+
+import math.BayesianNetwork;
+import math.Evidence;
+import math.Factor;
+import math.Variable;
+
+/**
+ * Base of the approximate inference engines, which estimate the distribution of a
+ * query variable from random samples of a {@link BayesianNetwork} instead of
+ * eliminating its variables. Their cost does not depend on the treewidth of the
+ * network, so they remain usable when the factors created by variable elimination
+ * would be too large.
+ * <p>
+ * The factors of the network must be its conditional probability tables: the
+ * first variable of each factor is the one whose distribution it gives, and each
+ * variable has exactly one such factor.
+ * <p>
+ * The samples are drawn by several threads, each with its own random generator,
+ * seeded from the seed of the engine so that a run on a single thread can be
+ * reproduced.
+ */
+public abstract class SamplingEngine {
+
+    private final SamplingModel model;
+    private final int threads;
+    private final long seed;
+
+    /**
+     * Prepares the network for sampling.
+     * 
+     * @param network
+     *            The network to sample
+     * @param threads
+     *            The number of threads drawing samples in each run
+     * @param seed
+     *            The seed from which the random generator of each thread is seeded
+     */
+    SamplingEngine(BayesianNetwork network, int threads, long seed) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("at least one thread is needed to draw samples");
+        }
+        this.model = new SamplingModel(network);
+        this.threads = threads;
+        this.seed = seed;
+    }
+
+    /**
+     * Starts drawing samples to estimate the distribution of the query variable
+     * given the evidence, in background threads. The estimate can be polled while
+     * the run goes on.
+     * 
+     * @param evidence
+     *            The observed values of some variables
+     * @param query
+     *            The variable whose distribution is estimated
+     * @param sampleBudget
+     *            The maximum number of samples to draw
+     * @param targetHalfWidth
+     *            The run stops before the budget is spent as soon as the 95%
+     *            confidence interval of every probability of the estimate is
+     *            narrower than twice this, or 0 to spend the whole budget. For
+     *            correlated samples, the intervals are computed by batch means.
+     * @return The running estimation.
+     */
+    public SamplingRun start(Evidence evidence, Variable query, long sampleBudget,
+            double targetHalfWidth) {
+        if (evidence.contains(query)) {
+            throw new IllegalArgumentException("The query variable " + query + " is observed");
+        }
+        int[] observed = model.observations(evidence);
+        Sampler[] samplers = new Sampler[threads];
+        for (int t = 0; t < threads; t++) {
+            samplers[t] = newSampler(model, observed, new Random(streamSeed(t)));
+        }
+        return new SamplingRun(query, model.numberOf(query), samplers, sampleBudget,
+                targetHalfWidth);
+    }
+
+    /**
+     * Estimates the distribution of the query variable given the evidence, waiting
+     * for the whole budget to be spent.
+     * 
+     * @param evidence
+     *            The observed values of some variables
+     * @param query
+     *            The variable whose distribution is estimated
+     * @param sampleBudget
+     *            The number of samples to draw
+     * @return The estimated distribution of the query variable.
+     */
+    public Factor query(Evidence evidence, Variable query, long sampleBudget) {
+        SamplingRun run = start(evidence, query, sampleBudget, 0);
+        try {
+            return run.await().getPosterior();
+        } catch (InterruptedException e) {
+            run.stop();
+            Thread.currentThread().interrupt();
+            return run.getEstimate().getPosterior();
+        }
+    }
+
+    /**
+     * Returns the seed of the random generator of the thread t, spread from the
+     * seed of this engine so that the streams of the threads are unrelated.
+     */
+    private long streamSeed(int t) {
+        long z = seed + (t + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Creates the sampler of one thread.
+     * 
+     * @param model
+     *            The tables of the network
+     * @param observed
+     *            The index of the observed value of each variable of the model, -1
+     *            if it is not observed
+     * @param random
+     *            The random generator of the thread
+     */
+    abstract Sampler newSampler(SamplingModel model, int[] observed, Random random);
+
+    /**
+     * Draws the samples of one thread.
+     */
+    static abstract class Sampler {
+
+        /**
+         * Draws the next sample into the given array, and returns its weight.
+         */
+        abstract double next(int[] sample);
+
+        /**
+         * Returns the number of variables of a sample.
+         */
+        abstract int size();
+
+        /**
+         * Returns whether the successive samples are correlated, in which case the
+         * precision of the estimate is computed from the means of batches of
+         * successive samples instead of the individual samples.
+         */
+        boolean isCorrelated() {
+            return false;
+        }
+    }
+}
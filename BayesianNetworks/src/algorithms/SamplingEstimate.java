@@ -0,0 +1,193 @@
+package algorithms;
+
+import math.Factor;
+import math.Variable;
+
+/**
+ * A snapshot of the estimated distribution of a query variable, with a 95%
+ * confidence interval for each of its probabilities.
+ * <p>
+ * The estimate of each probability is the ratio of the weight of the samples with
+ * this value to the total weight. Its variance is computed with the delta method
+ * when the samples are independent, and by batch means when they are correlated:
+ * the variance of the estimates of batches of successive samples, divided by the
+ * number of batches.
+ */
+public final class SamplingEstimate {
+
+    // quantile of the normal distribution for a 95% confidence interval
+    private static final double Z_95 = 1.959963984540054;
+
+    private final Variable query;
+    private final double[] probabilities;
+    private final double[] halfWidths;
+    private final long sampleCount;
+    private final double effectiveSampleSize;
+
+    /**
+     * Computes the estimate from the sums accumulated over the samples.
+     * 
+     * @param weights
+     *            The sum of the weights of the samples, for each value of the query
+     * @param squaredWeights
+     *            The sum of the squared weights of the samples, for each value
+     * @param sampleCount
+     *            The number of samples drawn, including the ones of weight 0
+     */
+    SamplingEstimate(Variable query, double[] weights, double[] squaredWeights, long sampleCount) {
+        this.query = query;
+        this.sampleCount = sampleCount;
+        int n = weights.length;
+        double total = 0;
+        double squaredTotal = 0;
+        for (int j = 0; j < n; j++) {
+            total += weights[j];
+            squaredTotal += squaredWeights[j];
+        }
+        effectiveSampleSize = squaredTotal == 0 ? 0 : total * total / squaredTotal;
+        probabilities = new double[n];
+        halfWidths = new double[n];
+        for (int j = 0; j < n; j++) {
+            if (total == 0) {
+                probabilities[j] = Double.NaN;
+                halfWidths[j] = Double.POSITIVE_INFINITY;
+                continue;
+            }
+            double p = weights[j] / total;
+            // sum of w^2 (1[x = j] - p)^2 over the samples, divided by the total^2
+            double variance = (squaredWeights[j] * (1 - p) * (1 - p) + (squaredTotal
+                    - squaredWeights[j]) * p * p) / (total * total);
+            probabilities[j] = p;
+            halfWidths[j] = Z_95 * Math.sqrt(variance);
+        }
+    }
+
+    /**
+     * Computes the estimate of correlated samples, whose variance is estimated by
+     * batch means.
+     * 
+     * @param weights
+     *            The sum of the weights of the samples, for each value of the query
+     * @param batchEstimates
+     *            The sum of the estimates of the batches, for each value
+     * @param squaredBatchEstimates
+     *            The sum of the squared estimates of the batches, for each value
+     * @param batchCount
+     *            The number of batches
+     * @param sampleCount
+     *            The number of samples drawn, including the ones of weight 0
+     */
+    SamplingEstimate(Variable query, double[] weights, double[] batchEstimates,
+            double[] squaredBatchEstimates, long batchCount, long sampleCount) {
+        this.query = query;
+        this.sampleCount = sampleCount;
+        int n = weights.length;
+        double total = 0;
+        for (int j = 0; j < n; j++) {
+            total += weights[j];
+        }
+        // the number of independent samples giving the variance of the worst estimate
+        double effective = sampleCount;
+        probabilities = new double[n];
+        halfWidths = new double[n];
+        for (int j = 0; j < n; j++) {
+            if (total == 0 || batchCount < 2) {
+                probabilities[j] = total == 0 ? Double.NaN : weights[j] / total;
+                halfWidths[j] = Double.POSITIVE_INFINITY;
+                continue;
+            }
+            double mean = batchEstimates[j] / batchCount;
+            double batchVariance = Math.max(0, (squaredBatchEstimates[j] - batchCount * mean
+                    * mean) / (batchCount - 1));
+            double p = weights[j] / total;
+            double variance = batchVariance / batchCount;
+            probabilities[j] = p;
+            halfWidths[j] = Z_95 * Math.sqrt(variance);
+            if (variance > 0) {
+                effective = Math.min(effective, p * (1 - p) / variance);
+            }
+        }
+        effectiveSampleSize = total == 0 ? 0 : effective;
+    }
+
+    /**
+     * Returns the estimated distribution of the query variable.
+     * 
+     * @return A new normalized factor on the query variable.
+     */
+    public Factor getPosterior() {
+        Factor posterior = new Factor(query);
+        for (int j = 0; j < probabilities.length; j++) {
+            posterior.setValue(probabilities[j], j);
+        }
+        return posterior;
+    }
+
+    /**
+     * Returns the estimated probability of the value of the given index.
+     * 
+     * @param value
+     *            The index of a value of the query variable
+     * @return the estimated probability, NaN if no sample had a positive weight
+     */
+    public double getProbability(int value) {
+        return probabilities[value];
+    }
+
+    /**
+     * Returns the half width of the 95% confidence interval of the probability of
+     * the value of the given index.
+     * 
+     * @param value
+     *            The index of a value of the query variable
+     * @return the half width of the confidence interval, centered on the estimate
+     */
+    public double getHalfWidth(int value) {
+        return halfWidths[value];
+    }
+
+    /**
+     * Returns the largest half width of the confidence intervals of the
+     * probabilities.
+     * 
+     * @return the precision of the least precise probability
+     */
+    public double getMaxHalfWidth() {
+        double max = 0;
+        for (double halfWidth : halfWidths) {
+            max = Math.max(max, halfWidth);
+        }
+        return max;
+    }
+
+    /**
+     * Returns the number of samples drawn.
+     * 
+     * @return the number of samples, including the ones of weight 0
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Returns the number of independent unweighted samples that would give the
+     * same precision as the weighted samples drawn: (sum w)^2 / sum w^2. For
+     * correlated samples, it is the smallest ratio of the variance of an
+     * independent sample to the variance of an estimate.
+     * 
+     * @return the effective sample size
+     */
+    public double getEffectiveSampleSize() {
+        return effectiveSampleSize;
+    }
+
+    @Override
+    public String toString() {
+        String res = "";
+        for (int j = 0; j < probabilities.length; j++) {
+            res += "P(" + query.toStringWithValue(j) + ") = " + probabilities[j] + " +/- "
+                    + halfWidths[j] + "\n";
+        }
+        return res + sampleCount + " samples (effective: " + effectiveSampleSize + ")";
+    }
+}
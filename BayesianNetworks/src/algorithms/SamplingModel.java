@@ -0,0 +1,184 @@
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Random;
+
+import math.BayesianNetwork;
+import math.Evidence;
+import math.Factor;
+import math.Variable;
+
+/**
+ * The conditional probability tables of a {@link BayesianNetwork}, laid out for
+ * sampling: the variables are numbered in a topological order, and a sample is an
+ * array holding the index of the value of each variable.
+ */
+final class SamplingModel {
+
+    // variables in topological order: parents before children
+    final Variable[] variables;
+    // table of each variable given its parents, in probability space
+    final double[][] tables;
+    // numbers of the variables of each table, the variable itself first
+    final int[][] scopes;
+    // strides of the variables of each table
+    final int[][] strides;
+    // numbers of the variables whose table contains each variable
+    final int[][] children;
+    private final HashMap<Variable, Integer> numbers = new HashMap<>();
+
+    /**
+     * Orders the conditional probability tables of the network. The first
+     * variable of each factor is the one whose distribution it gives, and each
+     * variable must have exactly one such factor.
+     */
+    SamplingModel(BayesianNetwork network) {
+        HashMap<Variable, Factor> cpts = new HashMap<>();
+        for (Factor f : network.getFactors()) {
+            Variable child = f.getVariables().get(0);
+            if (cpts.put(child, f) != null) {
+                throw new IllegalArgumentException("The variable " + child
+                        + " has several conditional probability tables");
+            }
+        }
+        // depth first search from each variable, adding it after its parents
+        ArrayList<Variable> order = new ArrayList<>();
+        HashMap<Variable, Boolean> visited = new HashMap<>();
+        for (Variable v : network.getVariables()) {
+            visit(v, cpts, visited, order);
+        }
+        int n = order.size();
+        variables = order.toArray(new Variable[n]);
+        for (int i = 0; i < n; i++) {
+            numbers.put(variables[i], i);
+        }
+        tables = new double[n][];
+        scopes = new int[n][];
+        strides = new int[n][];
+        ArrayList<LinkedList<Integer>> childLists = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            childLists.add(new LinkedList<Integer>());
+        }
+        for (int i = 0; i < n; i++) {
+            Factor cpt = Factor.toProbabilitySpace(cpts.get(variables[i]));
+            ArrayList<Variable> scope = cpt.getVariables();
+            tables[i] = cpt.getValues();
+            scopes[i] = new int[scope.size()];
+            strides[i] = new int[scope.size()];
+            int stride = 1;
+            for (int k = 0; k < scope.size(); k++) {
+                scopes[i][k] = numbers.get(scope.get(k));
+                strides[i][k] = stride;
+                stride *= scope.get(k).getCardinality();
+                if (k > 0) {
+                    childLists.get(scopes[i][k]).add(i);
+                }
+            }
+        }
+        children = new int[n][];
+        for (int i = 0; i < n; i++) {
+            children[i] = new int[childLists.get(i).size()];
+            int k = 0;
+            for (int c : childLists.get(i)) {
+                children[i][k++] = c;
+            }
+        }
+    }
+
+    private static void visit(Variable v, HashMap<Variable, Factor> cpts,
+            HashMap<Variable, Boolean> visited, ArrayList<Variable> order) {
+        Boolean done = visited.get(v);
+        if (done != null) {
+            if (!done) {
+                throw new IllegalArgumentException("The network has a cycle through " + v);
+            }
+            return;
+        }
+        Factor cpt = cpts.get(v);
+        if (cpt == null) {
+            throw new IllegalArgumentException("The variable " + v
+                    + " has no conditional probability table");
+        }
+        visited.put(v, false);
+        ArrayList<Variable> scope = cpt.getVariables();
+        for (int k = 1; k < scope.size(); k++) {
+            visit(scope.get(k), cpts, visited, order);
+        }
+        visited.put(v, true);
+        order.add(v);
+    }
+
+    /**
+     * Returns the number of the variable v in this model.
+     */
+    int numberOf(Variable v) {
+        Integer number = numbers.get(v);
+        if (number == null) {
+            throw new IllegalArgumentException("The variable " + v + " is not in the network");
+        }
+        return number;
+    }
+
+    /**
+     * Returns the index of the value of each variable given by the evidence, -1
+     * for the unobserved variables.
+     */
+    int[] observations(Evidence evidence) {
+        int[] observed = new int[variables.length];
+        Arrays.fill(observed, -1);
+        for (Variable v : evidence.getVariables()) {
+            observed[numberOf(v)] = evidence.getValueIndex(v);
+        }
+        return observed;
+    }
+
+    /**
+     * Returns the probability of the value of the variable i in the sample, given
+     * the values of its parents in the sample.
+     */
+    double probability(int i, int[] sample) {
+        return tables[i][row(i, sample) + sample[i]];
+    }
+
+    /**
+     * Returns the index in the table of the variable i of its first value, given
+     * the values of its parents in the sample. The variable comes first in its
+     * table, so the index of its value j is this plus j.
+     */
+    int row(int i, int[] sample) {
+        int[] scope = scopes[i];
+        int[] stride = strides[i];
+        int index = 0;
+        for (int k = 1; k < scope.length; k++) {
+            index += sample[scope[k]] * stride[k];
+        }
+        return index;
+    }
+
+    /**
+     * Returns a value drawn from the unnormalized distribution given by the first
+     * count weights.
+     */
+    static int draw(double[] weights, int count, Random random) {
+        double total = 0;
+        for (int j = 0; j < count; j++) {
+            total += weights[j];
+        }
+        double r = random.nextDouble() * total;
+        int last = 0;
+        for (int j = 0; j < count; j++) {
+            if (weights[j] > 0) {
+                last = j;
+                r -= weights[j];
+                if (r < 0) {
+                    return j;
+                }
+            }
+        }
+        // rounding errors
+        return last;
+    }
+}
@@ -0,0 +1,194 @@
+package algorithms;
+
+import algorithms.SamplingEngine.Sampler;
+
+import math.Variable;
+
+/**
+ * An estimation in progress, started by {@link SamplingEngine#start}. Each thread
+ * accumulates its samples locally and adds them to the shared sums by batches, so
+ * that the estimate can be polled at any time without slowing the threads down.
+ * <p>
+ * The run ends when the sample budget is spent, when the target precision is
+ * reached, or when it is stopped. When the samples are correlated, the batches of
+ * successive samples of each thread are also the batches of the batch means
+ * estimating the precision.
+ */
+public class SamplingRun {
+
+    // number of samples a thread draws between two updates of the shared sums
+    private static final int BATCH_SIZE = 256;
+    // minimum number of samples before the precision is trusted
+    private static final long MIN_SAMPLES = 1000;
+    // minimum number of batches before the precision from batch means is trusted
+    private static final long MIN_BATCHES = 30;
+
+    private final Variable query;
+    private final long sampleBudget;
+    private final double targetHalfWidth;
+    private final Thread[] workers;
+
+    // shared sums, guarded by this
+    private final double[] weights;
+    private final double[] squaredWeights;
+    // sums of the estimates of the batches and of their squares, for batch means
+    private final boolean batchMeans;
+    private final double[] batchEstimates;
+    private final double[] squaredBatchEstimates;
+    private long batchCount;
+    private long sampleCount;
+    private long claimedCount;
+    private RuntimeException failure;
+
+    private volatile boolean stopped;
+
+    SamplingRun(Variable query, final int queryNumber, Sampler[] samplers, long sampleBudget,
+            double targetHalfWidth) {
+        this.query = query;
+        this.sampleBudget = sampleBudget;
+        this.targetHalfWidth = targetHalfWidth;
+        this.weights = new double[query.getCardinality()];
+        this.squaredWeights = new double[query.getCardinality()];
+        this.batchMeans = samplers.length > 0 && samplers[0].isCorrelated();
+        this.batchEstimates = new double[query.getCardinality()];
+        this.squaredBatchEstimates = new double[query.getCardinality()];
+        this.workers = new Thread[samplers.length];
+        for (int t = 0; t < samplers.length; t++) {
+            final Sampler sampler = samplers[t];
+            workers[t] = new Thread("sampler-" + t) {
+                @Override
+                public void run() {
+                    draw(sampler, queryNumber);
+                }
+            };
+            workers[t].setDaemon(true);
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Draws batches of samples until the run ends.
+     */
+    private void draw(Sampler sampler, int queryNumber) {
+        int[] sample = new int[sampler.size()];
+        double[] localWeights = new double[weights.length];
+        double[] localSquaredWeights = new double[weights.length];
+        try {
+            int count;
+            while ((count = claim()) > 0) {
+                for (int k = 0; k < count; k++) {
+                    double w = sampler.next(sample);
+                    localWeights[sample[queryNumber]] += w;
+                    localSquaredWeights[sample[queryNumber]] += w * w;
+                }
+                add(localWeights, localSquaredWeights, count);
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            stopped = true;
+        }
+    }
+
+    /**
+     * Returns the number of samples the calling thread may draw in its next batch,
+     * 0 if the run has ended.
+     */
+    private synchronized int claim() {
+        if (stopped) {
+            return 0;
+        }
+        int count = (int) Math.min(BATCH_SIZE, sampleBudget - claimedCount);
+        claimedCount += count;
+        return count;
+    }
+
+    /**
+     * Adds the local sums of a thread to the shared sums, resets them, and checks
+     * whether the target precision is reached.
+     */
+    private synchronized void add(double[] localWeights, double[] localSquaredWeights, int count) {
+        double batchWeight = 0;
+        for (int j = 0; j < weights.length; j++) {
+            batchWeight += localWeights[j];
+        }
+        if (batchMeans && batchWeight > 0) {
+            for (int j = 0; j < weights.length; j++) {
+                double estimate = localWeights[j] / batchWeight;
+                batchEstimates[j] += estimate;
+                squaredBatchEstimates[j] += estimate * estimate;
+            }
+            batchCount++;
+        }
+        for (int j = 0; j < weights.length; j++) {
+            weights[j] += localWeights[j];
+            squaredWeights[j] += localSquaredWeights[j];
+            localWeights[j] = 0;
+            localSquaredWeights[j] = 0;
+        }
+        sampleCount += count;
+        if (targetHalfWidth > 0 && sampleCount >= MIN_SAMPLES
+                && (!batchMeans || batchCount >= MIN_BATCHES)
+                && getEstimate().getMaxHalfWidth() <= targetHalfWidth) {
+            stopped = true;
+        }
+    }
+
+    /**
+     * Returns the estimate from the samples drawn so far.
+     * 
+     * @return A snapshot of the estimate, which is not updated by the run.
+     */
+    public synchronized SamplingEstimate getEstimate() {
+        if (batchMeans) {
+            return new SamplingEstimate(query, weights, batchEstimates, squaredBatchEstimates,
+                    batchCount, sampleCount);
+        }
+        return new SamplingEstimate(query, weights, squaredWeights, sampleCount);
+    }
+
+    /**
+     * Stops drawing samples. The batches in progress are still counted.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Returns whether all the threads of this run have finished.
+     * 
+     * @return {@code true} if the estimate will not change anymore
+     */
+    public boolean isDone() {
+        for (Thread worker : workers) {
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the end of the run.
+     * 
+     * @return The final estimate.
+     * @throws InterruptedException
+     *             If the calling thread is interrupted while waiting
+     */
+    public SamplingEstimate await() throws InterruptedException {
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        return getEstimate();
+    }
+}
@@ -0,0 +1,80 @@
+package algorithms;
+
+import java.util.HashMap;
+import java.util.List;
+
+import math.Factor;
+import math.Variable;
+
+/**
+ * The optimal policies of the decisions of a decision network, as computed by a
+ * {@link DecisionEvaluator}, along with the maximum expected utility.
+ */
+public class Strategy {
+
+    private final List<Variable> decisions;
+    private final HashMap<Variable, Factor> policies;
+    private final HashMap<Variable, Factor> expectedUtilities;
+    private final double maximumExpectedUtility;
+
+    Strategy(List<Variable> decisions, HashMap<Variable, Factor> policies,
+            HashMap<Variable, Factor> expectedUtilities, double maximumExpectedUtility) {
+        this.decisions = decisions;
+        this.policies = policies;
+        this.expectedUtilities = expectedUtilities;
+        this.maximumExpectedUtility = maximumExpectedUtility;
+    }
+
+    /**
+     * Returns the expected utility of following this strategy, which is the
+     * largest expected utility of all strategies.
+     * 
+     * @return the maximum expected utility given the evidence
+     */
+    public double getMaximumExpectedUtility() {
+        return maximumExpectedUtility;
+    }
+
+    /**
+     * Returns the optimal policy of the given decision: a factor on the decision
+     * and the known variables its value depends on, equal to 1 for the value to
+     * choose given the values of these variables, and 0 for the others.
+     * 
+     * @param decision
+     *            A decision of the evaluated network
+     * @return A new factor describing the optimal policy.
+     */
+    public Factor getPolicy(Variable decision) {
+        return new Factor(get(policies, decision));
+    }
+
+    /**
+     * Returns the expected utility of each value of the given decision, given the
+     * values of the known variables it depends on, when the later decisions are
+     * optimal.
+     * 
+     * @param decision
+     *            A decision of the evaluated network
+     * @return A new factor on the same variables as {@link #getPolicy(Variable)}.
+     */
+    public Factor getExpectedUtility(Variable decision) {
+        return new Factor(get(expectedUtilities, decision));
+    }
+
+    private static Factor get(HashMap<Variable, Factor> factors, Variable decision) {
+        Factor f = factors.get(decision);
+        if (f == null) {
+            throw new IllegalArgumentException("The variable " + decision + " is not a decision");
+        }
+        return f;
+    }
+
+    @Override
+    public String toString() {
+        String res = "";
+        for (Variable d : decisions) {
+            res += "policy of " + d + ":\n" + policies.get(d).toFullString() + "\n";
+        }
+        return res + "MEU = " + maximumExpectedUtility;
+    }
+}
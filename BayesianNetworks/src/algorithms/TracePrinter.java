@@ -0,0 +1,93 @@
+package algorithms;
+
+import java.io.PrintStream;
+import java.util.List;
+
+import math.Factor;
+import math.QueryTrace;
+import math.Variable;
+import math.WideFactor;
+
+/**
+ * An {@link Instrumentation} printing the steps of each query, such as
+ * {@code f(A,C) = Sum[B] f(A,B)f(B,C)} for the elimination of B. It is meant to
+ * follow small computations by hand, not to observe the queries of a server.
+ */
+public class TracePrinter implements Instrumentation {
+
+    private final PrintStream out;
+
+    /**
+     * Creates a printer of the steps of the queries.
+     * 
+     * @param out
+     *            The stream receiving the steps
+     */
+    public TracePrinter(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public QueryTrace startQuery() {
+        return new QueryTrace() {
+            @Override
+            public boolean isEnabled() {
+                return true;
+            }
+
+            @Override
+            public void restricted(Factor factor, Variable v, int value) {
+                print(factor + " restricted to " + v + "=" + v.toStringWithValue(value));
+            }
+
+            @Override
+            public void multiplied(List<Factor> terms, Factor product) {
+                // printed with the elimination
+            }
+
+            @Override
+            public void eliminated(Variable v, List<Factor> terms, Factor result, long nanos) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(result).append(" = Sum[").append(v).append("] ");
+                for (Factor f : terms) {
+                    sb.append(f);
+                }
+                print(sb.toString());
+            }
+
+            @Override
+            public void eliminatedWide(Variable v, List<WideFactor> terms, WideFactor result,
+                    long productSize, long nanos) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(result).append(" = ");
+                if (v != null) {
+                    sb.append("Sum[").append(v).append("] ");
+                }
+                for (WideFactor f : terms) {
+                    sb.append(f);
+                }
+                print(sb.append(" (off-heap)").toString());
+            }
+
+            @Override
+            public void finished(Factor result, long nanos) {
+                print("result " + result + "\n");
+            }
+        };
+    }
+
+    private void print(String line) {
+        // a whole line at once, so that concurrent queries do not mix within a line
+        out.println(line);
+    }
+
+    @Override
+    public void cacheHit() {
+        print("cache hit");
+    }
+
+    @Override
+    public void cacheMiss() {
+        print("cache miss");
+    }
+}
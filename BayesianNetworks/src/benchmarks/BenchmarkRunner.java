@@ -0,0 +1,179 @@
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Measures operations: each of them is run repeatedly during a warmup period, so
+ * that it is compiled, then during a measurement period. The measurement reports
+ * the throughput, percentiles of the latency of a single run, and the number of
+ * bytes allocated per run, read from the allocation counter of the thread when the
+ * JVM provides one.
+ */
+public final class BenchmarkRunner {
+
+    // maximum number of latencies recorded, the runs after it are only counted
+    private static final int MAX_SAMPLES = 1 << 20;
+
+    private final long warmupNanos;
+    private final long measurementNanos;
+    private final long[] latencies = new long[MAX_SAMPLES];
+    // keeps the results alive, so that the runs cannot be optimized away
+    private volatile Object sink;
+
+    /**
+     * An operation to measure.
+     */
+    public interface Operation {
+
+        /**
+         * Runs the operation once.
+         * 
+         * @return The result of the operation, which is consumed by the runner.
+         */
+        Object run();
+    }
+
+    /**
+     * Creates a runner with the given periods.
+     * 
+     * @param warmupMillis
+     *            The duration of the warmup of each operation, in milliseconds
+     * @param measurementMillis
+     *            The duration of the measurement of each operation, in milliseconds
+     */
+    public BenchmarkRunner(long warmupMillis, long measurementMillis) {
+        this.warmupNanos = warmupMillis * 1000000;
+        this.measurementNanos = measurementMillis * 1000000;
+    }
+
+    /**
+     * Warms up and measures the given operation in the calling thread.
+     * 
+     * @param name
+     *            The name of the operation, for the report
+     * @param operation
+     *            The operation to measure
+     * @return The measurements.
+     */
+    public Result measure(String name, Operation operation) {
+        long end = System.nanoTime() + warmupNanos;
+        while (System.nanoTime() < end) {
+            sink = operation.run();
+        }
+        System.gc();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        end = start + measurementNanos;
+        long runs = 0;
+        long now = start;
+        while (now < end) {
+            sink = operation.run();
+            long after = System.nanoTime();
+            if (runs < MAX_SAMPLES) {
+                latencies[(int) runs] = after - now;
+            }
+            runs++;
+            now = after;
+        }
+        long elapsed = now - start;
+        long allocatedAfter = allocatedBytes();
+        double bytesPerRun = allocatedBefore < 0 ? Double.NaN
+                : (double) (allocatedAfter - allocatedBefore) / runs;
+        long[] sorted = Arrays.copyOf(latencies, (int) Math.min(runs, MAX_SAMPLES));
+        Arrays.sort(sorted);
+        return new Result(name, runs, elapsed, sorted, bytesPerRun);
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far, or -1 if
+     * the JVM does not count them.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported()
+                || !sunBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * The measurements of an operation.
+     */
+    public static final class Result {
+        private final String name;
+        private final long runs;
+        private final long elapsedNanos;
+        private final long[] sortedLatencies;
+        private final double bytesPerRun;
+
+        Result(String name, long runs, long elapsedNanos, long[] sortedLatencies,
+                double bytesPerRun) {
+            this.name = name;
+            this.runs = runs;
+            this.elapsedNanos = elapsedNanos;
+            this.sortedLatencies = sortedLatencies;
+            this.bytesPerRun = bytesPerRun;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of runs per second during the measurement.
+         * 
+         * @return the throughput of the operation
+         */
+        public double getOpsPerSecond() {
+            return runs * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Returns the latency of a single run below which the given fraction of the
+         * runs are.
+         * 
+         * @param fraction
+         *            The fraction of the runs, between 0 and 1, such as 0.99
+         * @return the percentile of the latency, in nanoseconds
+         */
+        public long getLatencyPercentile(double fraction) {
+            if (sortedLatencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(fraction * sortedLatencies.length) - 1;
+            return sortedLatencies[Math.max(0, Math.min(rank, sortedLatencies.length - 1))];
+        }
+
+        /**
+         * Returns the average number of bytes allocated by a run.
+         * 
+         * @return the allocation per run, NaN if the JVM does not count it
+         */
+        public double getBytesPerRun() {
+            return bytesPerRun;
+        }
+
+        /**
+         * Returns the header of the columns of {@link #toString()}.
+         * 
+         * @return the names of the columns
+         */
+        public static String header() {
+            return String.format("%-32s %14s %12s %12s %12s %12s %14s", "operation", "ops/s",
+                    "p50 (ns)", "p90 (ns)", "p99 (ns)", "p99.9 (ns)", "bytes/op");
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-32s %14.1f %12d %12d %12d %12d %14.1f", name,
+                    getOpsPerSecond(), getLatencyPercentile(0.5), getLatencyPercentile(0.9),
+                    getLatencyPercentile(0.99), getLatencyPercentile(0.999), bytesPerRun);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Random;
+
+import algorithms.InferenceEngine;
+import math.ArithmeticCircuit;
+import math.BayesianNetwork;
+import math.EliminationHeuristic;
+import math.EliminationPlan;
+import math.Evidence;
+import math.Factor;
+import math.Variable;
+
+/**
+ * Benchmarks of the operations of the factor engine on a random network. The
+ * options are given as pairs of arguments, for instance
+ * {@code --variables 40 --width 3 --density 0.7 --evidence 5}:
+ * <ul>
+ * <li>{@code --variables}: the number of variables of the network (default 30)</li>
+ * <li>{@code --cardinality}: the number of values of each variable (default 2)</li>
+ * <li>{@code --width}: the maximum number of parents of a variable (default 3)</li>
+ * <li>{@code --density}: the probability of keeping a candidate parent (default
+ * 0.7)</li>
+ * <li>{@code --evidence}: the number of observed variables (default 3)</li>
+ * <li>{@code --seed}: the seed of the network and the queries (default 1)</li>
+ * <li>{@code --warmup}: the warmup of each operation, in milliseconds (default
+ * 2000)</li>
+ * <li>{@code --time}: the measurement of each operation, in milliseconds
+ * (default 3000)</li>
+ * </ul>
+ */
+public class FactorBenchmarks {
+
+    // number of queries the inference benchmarks cycle through
+    private static final int QUERY_COUNT = 16;
+    // queries needing larger intermediate factors are not benchmarked
+    private static final long MAX_FACTOR_SIZE = 1 << 24;
+    // maximum size of the product of the elimination step benchmarked
+    private static final long MAX_STEP_SIZE = 1 << 16;
+    // networks needing larger elimination steps are not compiled to a circuit
+    private static final long MAX_CIRCUIT_FACTOR_SIZE = 1 << 20;
+
+    public static void main(String args[]) {
+        HashMap<String, String> options = parseOptions(args);
+        int variableCount = Integer.parseInt(option(options, "variables", "30"));
+        int cardinality = Integer.parseInt(option(options, "cardinality", "2"));
+        int width = Integer.parseInt(option(options, "width", "3"));
+        double density = Double.parseDouble(option(options, "density", "0.7"));
+        int evidenceSize = Integer.parseInt(option(options, "evidence", "3"));
+        long seed = Long.parseLong(option(options, "seed", "1"));
+        long warmup = Long.parseLong(option(options, "warmup", "2000"));
+        long time = Long.parseLong(option(options, "time", "3000"));
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options " + options.keySet());
+        }
+
+        RandomNetwork random = new RandomNetwork(variableCount, cardinality, width, density,
+                seed);
+        final BayesianNetwork network = random.getNetwork();
+        final BayesianNetwork logNetwork = network.toLogSpace();
+        Random generator = new Random(seed);
+        final Evidence[] evidences = new Evidence[QUERY_COUNT];
+        final Variable[] queries = new Variable[QUERY_COUNT];
+        ArrayList<Variable> variables = random.getVariables();
+        for (int k = 0; k < QUERY_COUNT; k++) {
+            queries[k] = variables.get(generator.nextInt(variables.size()));
+            evidences[k] = random.randomEvidence(evidenceSize, queries[k], generator);
+        }
+
+        // the largest table, and a table sharing one of its variables
+        Factor largest = network.getFactors().get(0);
+        for (Factor f : network.getFactors()) {
+            if (f.getSize() > largest.getSize()) {
+                largest = f;
+            }
+        }
+        Factor neighbor = null;
+        for (Factor f : network.getFactors()) {
+            if (f != largest && (neighbor == null || sharesVariable(f, largest)
+                    && !sharesVariable(neighbor, largest))) {
+                neighbor = f;
+            }
+        }
+        // the terms of the largest elimination step that is not too large
+        Variable largestStep = null;
+        long largestStepSize = 0;
+        for (Variable v : variables) {
+            long size = productSize(termsOf(network, v));
+            if (size <= MAX_STEP_SIZE && size > largestStepSize) {
+                largestStep = v;
+                largestStepSize = size;
+            }
+        }
+        final Variable eliminated = largestStep;
+        final LinkedList<Factor> terms = termsOf(network, eliminated);
+        final Factor f1 = largest;
+        final Factor f2 = neighbor;
+        final Factor product = Factor.multiply(terms);
+
+        System.out.println("network: " + variableCount + " variables, cardinality "
+                + cardinality + ", width " + width + ", density " + density + ", evidence "
+                + evidenceSize + ", seed " + seed + ", largest table " + largest.getSize()
+                + " entries");
+        System.out.println(BenchmarkRunner.Result.header());
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, time);
+        System.out.println(runner.measure("multiply " + f1.getSize() + " x "
+                + f2.getSize(), new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return Factor.multiply(f1, f2);
+            }
+        }));
+        System.out.println(runner.measure("multiply " + terms.size() + " terms to "
+                + product.getSize(), new BenchmarkRunner.Operation() {
+            @Override
+            public Object run() {
+                return Factor.multiply(terms);
+            }
+        }));
+        System.out.println(runner.measure("sumout " + product.getSize(),
+                new BenchmarkRunner.Operation() {
+                    @Override
+                    public Object run() {
+                        return Factor.sumout(product, eliminated);
+                    }
+                }));
+        System.out.println(runner.measure("restrict network", new BenchmarkRunner.Operation() {
+            private int k;
+
+            @Override
+            public Object run() {
+                Evidence evidence = evidences[k++ % QUERY_COUNT];
+                Factor last = null;
+                for (Factor f : network.getFactors()) {
+                    last = Factor.restrict(f, evidence);
+                }
+                return last;
+            }
+        }));
+
+        final InferenceEngine engine = new InferenceEngine(EliminationHeuristic.MIN_FILL,
+                MAX_FACTOR_SIZE);
+        try {
+            for (int k = 0; k < QUERY_COUNT; k++) {
+                engine.query(network, evidences[k], queries[k]);
+            }
+            System.out.println(runner.measure("inference", new BenchmarkRunner.Operation() {
+                private int k;
+
+                @Override
+                public Object run() {
+                    int q = k++ % QUERY_COUNT;
+                    return engine.query(network, evidences[q], queries[q]);
+                }
+            }));
+            System.out.println(runner.measure("inference (log space)",
+                    new BenchmarkRunner.Operation() {
+                        private int k;
+
+                        @Override
+                        public Object run() {
+                            int q = k++ % QUERY_COUNT;
+                            return engine.query(logNetwork, evidences[q], queries[q]);
+                        }
+                    }));
+        } catch (IllegalArgumentException e) {
+            System.out.println("inference skipped: " + e.getMessage());
+        }
+
+        EliminationPlan plan = EliminationPlan.compute(new LinkedList<>(network.getFactors()),
+                new LinkedList<Variable>(), new LinkedList<Variable>(),
+                EliminationHeuristic.MIN_FILL);
+        if (plan.getMaxFactorSize() > MAX_CIRCUIT_FACTOR_SIZE) {
+            System.out.println("circuit skipped: its largest step has "
+                    + plan.getMaxFactorSize() + " entries");
+            return;
+        }
+        ArithmeticCircuit circuit = ArithmeticCircuit.compile(network,
+                EliminationHeuristic.MIN_FILL);
+        final ArithmeticCircuit.Evaluator evaluator = circuit.newEvaluator();
+        // the observations are extracted beforehand, so that the queries allocate nothing
+        final Variable[][] observed = new Variable[QUERY_COUNT][];
+        final int[][] values = new int[QUERY_COUNT][];
+        for (int k = 0; k < QUERY_COUNT; k++) {
+            observed[k] = evidences[k].getVariables().toArray(new Variable[0]);
+            values[k] = new int[observed[k].length];
+            for (int i = 0; i < observed[k].length; i++) {
+                values[k][i] = evidences[k].getValueIndex(observed[k][i]);
+            }
+        }
+        final double[] distribution = new double[cardinality];
+        System.out.println(runner.measure("circuit posterior (" + circuit.getEdgeCount()
+                + " edges)", new BenchmarkRunner.Operation() {
+            private int k;
+
+            @Override
+            public Object run() {
+                int q = k++ % QUERY_COUNT;
+                evaluator.clearEvidence();
+                for (int i = 0; i < observed[q].length; i++) {
+                    evaluator.observe(observed[q][i], values[q][i]);
+                }
+                evaluator.differentiate();
+                evaluator.posterior(queries[q], distribution);
+                return distribution;
+            }
+        }));
+    }
+
+    private static LinkedList<Factor> termsOf(BayesianNetwork network, Variable v) {
+        LinkedList<Factor> terms = new LinkedList<>();
+        for (Factor f : network.getFactors()) {
+            if (f.contains(v)) {
+                terms.add(f);
+            }
+        }
+        return terms;
+    }
+
+    private static long productSize(LinkedList<Factor> terms) {
+        HashSet<Variable> vars = new HashSet<>();
+        for (Factor f : terms) {
+            vars.addAll(f.getVariables());
+        }
+        long size = 1;
+        for (Variable v : vars) {
+            size *= v.getCardinality();
+            if (size > MAX_STEP_SIZE) {
+                return Long.MAX_VALUE;
+            }
+        }
+        return size;
+    }
+
+    private static boolean sharesVariable(Factor f1, Factor f2) {
+        for (Variable v : f1.getVariables()) {
+            if (f2.contains(v)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static HashMap<String, String> parseOptions(String args[]) {
+        HashMap<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("Expected --option value instead of "
+                        + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static String option(HashMap<String, String> options, String name,
+            String defaultValue) {
+        String value = options.remove(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,122 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Random;
+
+import math.BayesianNetwork;
+import math.Evidence;
+import math.Factor;
+import math.Variable;
+import math.VariableRegistry;
+
+/**
+ * Generates random Bayesian networks for the benchmarks. The variables are
+ * created in a topological order, and each of them draws its parents among the
+ * variables before it: the width is the maximum number of parents of a variable,
+ * and the density is the probability of keeping each of these candidate parents.
+ * The probabilities of each row of a table are drawn uniformly, and normalized.
+ */
+public final class RandomNetwork {
+
+    private final BayesianNetwork network;
+    private final ArrayList<Variable> variables;
+
+    /**
+     * Generates a random network.
+     * 
+     * @param variableCount
+     *            The number of variables of the network
+     * @param cardinality
+     *            The number of values of each variable
+     * @param width
+     *            The maximum number of parents of a variable
+     * @param density
+     *            The probability of keeping each candidate parent, between 0 and 1
+     * @param seed
+     *            The seed of the random generator: the same parameters and seed
+     *            give the same network
+     */
+    public RandomNetwork(int variableCount, int cardinality, int width, double density,
+            long seed) {
+        Random random = new Random(seed);
+        variables = new ArrayList<>();
+        // each network has its own variables, even with the names of another one
+        VariableRegistry registry = new VariableRegistry();
+        LinkedList<Factor> factors = new LinkedList<>();
+        for (int i = 0; i < variableCount; i++) {
+            Variable v = registry.variable("X" + i, cardinality);
+            ArrayList<Variable> scope = new ArrayList<>();
+            scope.add(v);
+            for (int k = 0; k < width && i > 0; k++) {
+                Variable parent = variables.get(random.nextInt(i));
+                if (random.nextDouble() < density && !scope.contains(parent)) {
+                    scope.add(parent);
+                }
+            }
+            variables.add(v);
+            Factor cpt = new Factor(scope);
+            // the child has the stride 1, so each row is a block of cardinality values
+            double[] row = new double[cardinality];
+            int[] assignment = new int[scope.size()];
+            for (int r = 0; r < cpt.getSize() / cardinality; r++) {
+                double sum = 0;
+                for (int j = 0; j < cardinality; j++) {
+                    row[j] = random.nextDouble();
+                    sum += row[j];
+                }
+                int remaining = r;
+                for (int p = 1; p < assignment.length; p++) {
+                    assignment[p] = remaining % cardinality;
+                    remaining /= cardinality;
+                }
+                for (int j = 0; j < cardinality; j++) {
+                    assignment[0] = j;
+                    cpt.setValue(row[j] / sum, assignment);
+                }
+            }
+            factors.add(cpt);
+        }
+        network = new BayesianNetwork(factors);
+    }
+
+    public BayesianNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * Returns the variables of the network, in topological order.
+     * 
+     * @return A new list of the variables.
+     */
+    public ArrayList<Variable> getVariables() {
+        return new ArrayList<>(variables);
+    }
+
+    /**
+     * Draws random observations of distinct variables, never the excluded one.
+     * 
+     * @param size
+     *            The number of observed variables
+     * @param excluded
+     *            A variable that must not be observed, such as the query variable,
+     *            or null
+     * @param random
+     *            The random generator
+     * @return The random evidence.
+     */
+    public Evidence randomEvidence(int size, Variable excluded, Random random) {
+        ArrayList<Variable> candidates = getVariables();
+        candidates.remove(excluded);
+        if (size > candidates.size()) {
+            throw new IllegalArgumentException("Cannot observe " + size + " variables out of "
+                    + candidates.size());
+        }
+        Evidence evidence = Evidence.empty();
+        for (int k = 0; k < size; k++) {
+            Variable v = candidates.remove(random.nextInt(candidates.size()));
+            evidence = evidence.with(v, random.nextInt(v.getCardinality()));
+        }
+        return evidence;
+    }
+}
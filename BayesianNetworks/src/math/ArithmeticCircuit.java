@@ -0,0 +1,616 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * An arithmetic circuit computing the network polynomial of a Bayesian network:
+ * the sum, over all the assignments of the variables, of the products of their
+ * parameters and of the indicators of their values. It is compiled once by a
+ * symbolic run of variable elimination, where each entry of each factor is a node
+ * of the circuit instead of a number: the products become multiplication nodes
+ * and the sums out become addition nodes.
+ * <p>
+ * Setting the indicators of the values incompatible with the evidence to 0 and
+ * evaluating the circuit gives the probability of the evidence. Then, the partial
+ * derivative of the circuit with respect to the indicator of a value gives the
+ * joint probability of this value and of the rest of the evidence, so a single
+ * backward pass gives the posterior marginals of all the variables.
+ * <p>
+ * The circuit is a flat DAG stored in arrays of primitives, with the children of
+ * each node before it. It is immutable and can be shared by threads, each of them
+ * using its own {@link Evaluator}. The parameters are read in probability space,
+ * even from factors in log space.
+ */
+public final class ArithmeticCircuit {
+
+    // kinds of nodes
+    private static final byte CONSTANT = 0;
+    private static final byte INDICATOR = 1;
+    private static final byte ADD = 2;
+    private static final byte MULTIPLY = 3;
+
+    // the shared constant nodes 0 and 1
+    private static final int ZERO = 0;
+    private static final int ONE = 1;
+
+    private final Variable[] variables;
+    // first indicator node of each variable, indexed by its ID, -1 if none
+    private final int[] indicatorOffsets;
+    private final byte[] kinds;
+    private final double[] constants;
+    // the children of node i are children[childStarts[i]..childStarts[i + 1]]
+    private final int[] childStarts;
+    private final int[] children;
+    private final int root;
+
+    private ArithmeticCircuit(Builder builder, Variable[] variables, int[] indicatorOffsets,
+            int root) {
+        this.variables = variables;
+        this.indicatorOffsets = indicatorOffsets;
+        this.kinds = Arrays.copyOf(builder.kinds, builder.nodeCount);
+        this.constants = Arrays.copyOf(builder.constants, builder.nodeCount);
+        this.childStarts = Arrays.copyOf(builder.childStarts, builder.nodeCount + 1);
+        this.children = Arrays.copyOf(builder.children, builder.edgeCount);
+        this.root = root;
+    }
+
+    /**
+     * Compiles the given network into a circuit, following the elimination order
+     * computed by the given heuristic: the size of the circuit is about the sum
+     * of the sizes of the products of this order.
+     * 
+     * @param network
+     *            The network to compile
+     * @param heuristic
+     *            The strategy used to compute the elimination order
+     * @return The circuit of the network.
+     * @throws IllegalArgumentException
+     *             If the circuit would have more than 2^31 nodes or edges.
+     */
+    public static ArithmeticCircuit compile(BayesianNetwork network,
+            EliminationHeuristic heuristic) {
+        LinkedList<Factor> factors = new LinkedList<>(network.getFactors());
+        EliminationPlan plan = EliminationPlan.compute(factors, new LinkedList<Variable>(),
+                new LinkedList<Variable>(), heuristic);
+        Builder builder = new Builder();
+        FactorBuckets<SymbolicFactor> buckets = new FactorBuckets<>();
+        for (Factor f : factors) {
+            SymbolicFactor s = SymbolicFactor.parameters(f, builder);
+            buckets.add(s, f.getVariableIds());
+        }
+        // an indicator factor for each variable, with consecutive nodes
+        List<Variable> networkVariables = network.getVariables();
+        Variable[] variables = networkVariables.toArray(new Variable[networkVariables.size()]);
+        int maxId = -1;
+        for (Variable v : variables) {
+            maxId = Math.max(maxId, v.getId());
+        }
+        int[] indicatorOffsets = new int[maxId + 1];
+        Arrays.fill(indicatorOffsets, -1);
+        for (Variable v : variables) {
+            indicatorOffsets[v.getId()] = builder.nodeCount;
+            SymbolicFactor s = SymbolicFactor.indicators(v, builder);
+            buckets.add(s, new int[] { v.getId() });
+        }
+        // eliminate all the variables symbolically, the ones in no factor last
+        LinkedList<Variable> order = new LinkedList<>(plan.getOrder());
+        order.addAll(networkVariables);
+        LinkedList<SymbolicFactor> terms = new LinkedList<>();
+        for (Variable v : order) {
+            terms.clear();
+            buckets.take(v, terms);
+            if (!terms.isEmpty()) {
+                SymbolicFactor s = SymbolicFactor.sumProduct(terms, v, builder);
+                buckets.add(s, s.getIds());
+            }
+        }
+        LinkedList<SymbolicFactor> remaining = buckets.getFactors();
+        int[] constantNodes = new int[remaining.size()];
+        int k = 0;
+        for (SymbolicFactor s : remaining) {
+            constantNodes[k++] = s.nodes[0];
+        }
+        int root = builder.multiply(constantNodes, constantNodes.length);
+        return new ArithmeticCircuit(builder, variables, indicatorOffsets, root);
+    }
+
+    public int getNodeCount() {
+        return kinds.length;
+    }
+
+    public int getEdgeCount() {
+        return children.length;
+    }
+
+    /**
+     * Returns the variables of the compiled network.
+     * 
+     * @return A new list of the variables of the network.
+     */
+    public List<Variable> getVariables() {
+        return new ArrayList<>(Arrays.asList(variables));
+    }
+
+    /**
+     * Creates an evaluator of this circuit, without evidence.
+     * 
+     * @return A new evaluator, to be used by a single thread at a time.
+     */
+    public Evaluator newEvaluator() {
+        return new Evaluator();
+    }
+
+    @Override
+    public String toString() {
+        return "ArithmeticCircuit [variables=" + variables.length + ", nodes="
+                + getNodeCount() + ", edges=" + getEdgeCount() + "]";
+    }
+
+    /**
+     * Evaluates the circuit under some evidence. The evaluator holds the values
+     * and the derivatives of all the nodes, allocated once: setting the evidence,
+     * evaluating, differentiating and reading the results allocate nothing, except
+     * the methods returning new objects. An evaluator must not be used by several
+     * threads at the same time.
+     */
+    public final class Evaluator {
+        private final double[] values;
+        private final double[] derivatives;
+        // number of children equal to 0 of each multiplication node, and the
+        // product of its other children
+        private final int[] zeroCounts;
+        private final double[] nonZeroProducts;
+        private boolean differentiated;
+
+        private Evaluator() {
+            int n = kinds.length;
+            values = Arrays.copyOf(constants, n);
+            derivatives = new double[n];
+            zeroCounts = new int[n];
+            nonZeroProducts = new double[n];
+            for (int i = 0; i < n; i++) {
+                if (kinds[i] == INDICATOR) {
+                    values[i] = 1;
+                }
+            }
+        }
+
+        /**
+         * Removes all the evidence.
+         */
+        public void clearEvidence() {
+            for (Variable v : variables) {
+                unobserve(v);
+            }
+        }
+
+        /**
+         * Sets the evidence to the given observations, replacing the previous
+         * ones.
+         * 
+         * @param evidence
+         *            The observed values of some variables of the network
+         */
+        public void setEvidence(Evidence evidence) {
+            clearEvidence();
+            for (Variable v : evidence.getVariables()) {
+                observe(v, evidence.getValueIndex(v));
+            }
+        }
+
+        /**
+         * Observes the given value of a variable, replacing its previous
+         * observation if any.
+         * 
+         * @param v
+         *            A variable of the network
+         * @param value
+         *            The index of the observed value
+         */
+        public void observe(Variable v, int value) {
+            int offset = indicatorOffset(v);
+            if (value < 0 || value >= v.getCardinality()) {
+                throw new IllegalArgumentException(v + " has no value " + value);
+            }
+            for (int x = 0; x < v.getCardinality(); x++) {
+                values[offset + x] = x == value ? 1 : 0;
+            }
+            differentiated = false;
+        }
+
+        /**
+         * Removes the observation of the given variable, if any.
+         * 
+         * @param v
+         *            A variable of the network
+         */
+        public void unobserve(Variable v) {
+            int offset = indicatorOffset(v);
+            for (int x = 0; x < v.getCardinality(); x++) {
+                values[offset + x] = 1;
+            }
+            differentiated = false;
+        }
+
+        /**
+         * Evaluates the circuit bottom-up under the current evidence.
+         * 
+         * @return the probability of the evidence
+         */
+        public double evaluate() {
+            for (int i = 0; i < kinds.length; i++) {
+                if (kinds[i] == ADD) {
+                    double sum = 0;
+                    for (int c = childStarts[i]; c < childStarts[i + 1]; c++) {
+                        sum += values[children[c]];
+                    }
+                    values[i] = sum;
+                } else if (kinds[i] == MULTIPLY) {
+                    int zeros = 0;
+                    double product = 1;
+                    for (int c = childStarts[i]; c < childStarts[i + 1]; c++) {
+                        double value = values[children[c]];
+                        if (value == 0) {
+                            zeros++;
+                        } else {
+                            product *= value;
+                        }
+                    }
+                    zeroCounts[i] = zeros;
+                    nonZeroProducts[i] = product;
+                    values[i] = zeros > 0 ? 0 : product;
+                }
+            }
+            differentiated = false;
+            return values[root];
+        }
+
+        /**
+         * Evaluates the circuit, then computes top-down the partial derivatives of
+         * the root with respect to all the nodes, from which
+         * {@link #posterior(Variable, double[])} reads the marginals.
+         * 
+         * @return the probability of the evidence
+         */
+        public double differentiate() {
+            double probability = evaluate();
+            Arrays.fill(derivatives, 0);
+            derivatives[root] = 1;
+            for (int i = root; i >= 0; i--) {
+                double derivative = derivatives[i];
+                if (derivative == 0) {
+                    continue;
+                }
+                if (kinds[i] == ADD) {
+                    for (int c = childStarts[i]; c < childStarts[i + 1]; c++) {
+                        derivatives[children[c]] += derivative;
+                    }
+                } else if (kinds[i] == MULTIPLY && childStarts[i + 1] - childStarts[i] == 2) {
+                    // the derivative of a child is the other child, without division
+                    int first = children[childStarts[i]];
+                    int second = children[childStarts[i] + 1];
+                    derivatives[first] += derivative * values[second];
+                    derivatives[second] += derivative * values[first];
+                } else if (kinds[i] == MULTIPLY && zeroCounts[i] <= 1) {
+                    // the derivative of a child is the product of the others
+                    for (int c = childStarts[i]; c < childStarts[i + 1]; c++) {
+                        double value = values[children[c]];
+                        if (zeroCounts[i] == 0) {
+                            derivatives[children[c]] += derivative * nonZeroProducts[i] / value;
+                        } else if (value == 0) {
+                            derivatives[children[c]] += derivative * nonZeroProducts[i];
+                        }
+                    }
+                }
+            }
+            differentiated = true;
+            return probability;
+        }
+
+        /**
+         * Returns the probability of the current evidence, computed by the last
+         * evaluation.
+         * 
+         * @return the value of the circuit
+         */
+        public double getProbabilityOfEvidence() {
+            return values[root];
+        }
+
+        /**
+         * Writes the posterior distribution of a variable given the current
+         * evidence, which needs {@link #differentiate()} to have been called
+         * since the last change of the evidence. The posterior of an observed
+         * variable is its observed value.
+         * 
+         * @param v
+         *            A variable of the network
+         * @param distribution
+         *            The array receiving the probability of each value of v
+         * @throws IllegalStateException
+         *             If the evidence has a probability of 0.
+         */
+        public void posterior(Variable v, double[] distribution) {
+            if (!differentiated) {
+                throw new IllegalStateException("The circuit must be differentiated first");
+            }
+            int offset = indicatorOffset(v);
+            double probability = values[root];
+            if (probability == 0) {
+                throw new IllegalStateException("The evidence has a probability of 0");
+            }
+            for (int x = 0; x < v.getCardinality(); x++) {
+                distribution[x] = values[offset + x] * derivatives[offset + x] / probability;
+            }
+        }
+
+        /**
+         * Returns the posterior distribution of a variable given the current
+         * evidence, like {@link #posterior(Variable, double[])}.
+         * 
+         * @param v
+         *            A variable of the network
+         * @return A new factor on v.
+         * @throws IllegalStateException
+         *             If the evidence has a probability of 0.
+         */
+        public Factor posterior(Variable v) {
+            double[] distribution = new double[v.getCardinality()];
+            posterior(v, distribution);
+            ArrayList<Variable> vars = new ArrayList<>();
+            vars.add(v);
+            return new Factor(vars, distribution, false);
+        }
+
+        /**
+         * Returns the partial derivative of the circuit with respect to the
+         * indicator of a value, which is the probability of this value jointly with
+         * the evidence on the other variables.
+         * 
+         * @param v
+         *            A variable of the network
+         * @param value
+         *            The index of a value of v
+         * @return the derivative computed by the last differentiation
+         */
+        public double getDerivative(Variable v, int value) {
+            if (!differentiated) {
+                throw new IllegalStateException("The circuit must be differentiated first");
+            }
+            return derivatives[indicatorOffset(v) + value];
+        }
+
+        private int indicatorOffset(Variable v) {
+            int id = v.getId();
+            if (id >= indicatorOffsets.length || indicatorOffsets[id] < 0) {
+                throw new IllegalArgumentException(v + " is not a variable of the circuit");
+            }
+            return indicatorOffsets[id];
+        }
+    }
+
+    /**
+     * Appends the nodes of a circuit being compiled to growing arrays, simplifying
+     * the nodes with constant children.
+     */
+    private static final class Builder {
+        private byte[] kinds = new byte[1024];
+        private double[] constants = new double[1024];
+        private int[] childStarts = new int[1025];
+        private int[] children = new int[4096];
+        private int nodeCount;
+        private int edgeCount;
+
+        Builder() {
+            // the shared constants ZERO and ONE
+            constant(0);
+            constant(1);
+        }
+
+        int constant(double value) {
+            int node = newNode(CONSTANT);
+            constants[node] = value;
+            return node;
+        }
+
+        /**
+         * Returns the node of a parameter, which is one of the shared constants if
+         * it is 0 or 1.
+         */
+        int parameter(double value) {
+            if (value == 0) {
+                return ZERO;
+            }
+            return value == 1 ? ONE : constant(value);
+        }
+
+        int indicator() {
+            return newNode(INDICATOR);
+        }
+
+        /**
+         * Returns a node multiplying the given nodes, leaving out the ones.
+         */
+        int multiply(int[] nodes, int count) {
+            int kept = 0;
+            for (int k = 0; k < count; k++) {
+                if (nodes[k] == ZERO) {
+                    return ZERO;
+                }
+                if (nodes[k] != ONE) {
+                    nodes[kept++] = nodes[k];
+                }
+            }
+            return operation(MULTIPLY, nodes, kept, ONE);
+        }
+
+        /**
+         * Returns a node adding the given nodes, leaving out the zeros.
+         */
+        int add(int[] nodes, int count) {
+            int kept = 0;
+            for (int k = 0; k < count; k++) {
+                if (nodes[k] != ZERO) {
+                    nodes[kept++] = nodes[k];
+                }
+            }
+            return operation(ADD, nodes, kept, ZERO);
+        }
+
+        private int operation(byte kind, int[] nodes, int count, int neutral) {
+            if (count == 0) {
+                return neutral;
+            }
+            if (count == 1) {
+                return nodes[0];
+            }
+            if (edgeCount > Integer.MAX_VALUE - count) {
+                throw new IllegalArgumentException("The circuit has too many edges");
+            }
+            if (edgeCount + count > children.length) {
+                children = Arrays.copyOf(children,
+                        (int) Math.min(Integer.MAX_VALUE, Math.max(2L * children.length,
+                                (long) edgeCount + count)));
+            }
+            System.arraycopy(nodes, 0, children, edgeCount, count);
+            edgeCount += count;
+            return newNode(kind);
+        }
+
+        /**
+         * Appends a node whose children are the edges added since the previous
+         * node.
+         */
+        private int newNode(byte kind) {
+            if (nodeCount == kinds.length) {
+                if (nodeCount > Integer.MAX_VALUE / 2 - 1) {
+                    throw new IllegalArgumentException("The circuit has too many nodes");
+                }
+                kinds = Arrays.copyOf(kinds, 2 * nodeCount);
+                constants = Arrays.copyOf(constants, 2 * nodeCount);
+                childStarts = Arrays.copyOf(childStarts, 2 * nodeCount + 1);
+            }
+            kinds[nodeCount] = kind;
+            childStarts[nodeCount + 1] = edgeCount;
+            return nodeCount++;
+        }
+    }
+
+    /**
+     * A factor of the symbolic elimination, whose entries are nodes of the
+     * circuit, with the same layout as the table of a {@link Factor}.
+     */
+    private static final class SymbolicFactor {
+        private final ArrayList<Variable> vars;
+        private final int[] nodes;
+
+        private SymbolicFactor(ArrayList<Variable> vars) {
+            this.vars = vars;
+            this.nodes = new int[Factor.tableSize(vars)];
+        }
+
+        static SymbolicFactor parameters(Factor f, Builder builder) {
+            SymbolicFactor s = new SymbolicFactor(f.getVariables());
+            for (int i = 0; i < s.nodes.length; i++) {
+                double value = f.valueAt(i);
+                s.nodes[i] = builder.parameter(f.isLogSpace() ? Math.exp(value) : value);
+            }
+            return s;
+        }
+
+        static SymbolicFactor indicators(Variable v, Builder builder) {
+            ArrayList<Variable> vars = new ArrayList<>();
+            vars.add(v);
+            SymbolicFactor s = new SymbolicFactor(vars);
+            for (int x = 0; x < s.nodes.length; x++) {
+                s.nodes[x] = builder.indicator();
+            }
+            return s;
+        }
+
+        int[] getIds() {
+            int[] ids = new int[vars.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = vars.get(i).getId();
+            }
+            Arrays.sort(ids);
+            return ids;
+        }
+
+        private int strideOf(Variable v) {
+            int stride = 1;
+            for (Variable u : vars) {
+                if (u.equals(v)) {
+                    return stride;
+                }
+                stride *= u.getCardinality();
+            }
+            return 0;
+        }
+
+        /**
+         * Creates the nodes of the product of the terms where v is summed out: an
+         * addition over the values of v of the multiplications of the entries of
+         * the terms.
+         */
+        static SymbolicFactor sumProduct(List<SymbolicFactor> terms, Variable v,
+                Builder builder) {
+            ArrayList<Variable> resultVars = new ArrayList<>();
+            BitSet resultIds = new BitSet();
+            for (SymbolicFactor s : terms) {
+                for (Variable u : s.vars) {
+                    if (!u.equals(v) && !resultIds.get(u.getId())) {
+                        resultIds.set(u.getId());
+                        resultVars.add(u);
+                    }
+                }
+            }
+            SymbolicFactor result = new SymbolicFactor(resultVars);
+            SymbolicFactor[] factors = terms.toArray(new SymbolicFactor[terms.size()]);
+            int n = resultVars.size();
+            int t = factors.length;
+            int[][] termStrides = new int[t][n];
+            int[] summedStrides = new int[t];
+            for (int k = 0; k < t; k++) {
+                for (int i = 0; i < n; i++) {
+                    termStrides[k][i] = factors[k].strideOf(resultVars.get(i));
+                }
+                summedStrides[k] = factors[k].strideOf(v);
+            }
+            int[] products = new int[v.getCardinality()];
+            int[] entries = new int[t];
+            int[] assignment = new int[n];
+            int[] indices = new int[t];
+            for (int index = 0; index < result.nodes.length; index++) {
+                for (int x = 0; x < products.length; x++) {
+                    for (int k = 0; k < t; k++) {
+                        entries[k] = factors[k].nodes[indices[k] + x * summedStrides[k]];
+                    }
+                    products[x] = builder.multiply(entries, t);
+                }
+                result.nodes[index] = builder.add(products, products.length);
+                // increment the assignment, and the indices in the terms with it
+                for (int i = 0; i < n; i++) {
+                    int max = resultVars.get(i).getCardinality() - 1;
+                    if (assignment[i] == max) {
+                        assignment[i] = 0;
+                        for (int k = 0; k < t; k++) {
+                            indices[k] -= max * termStrides[k][i];
+                        }
+                    } else {
+                        assignment[i]++;
+                        for (int k = 0; k < t; k++) {
+                            indices[k] += termStrides[k][i];
+                        }
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -3,56 +3,114 @@ package math;
 import java.util.ArrayList;
 import java.util.LinkedList;
 
+/**
+ * A value for each variable of a {@link Scope}. The values are stored as the
+ * index of the assignment in the mixed radix numbering of the scope: the value of
+ * the variable at position i is the digit of stride {@link Scope#getStride(int)}.
+ */
 public class Assignment {
 
-    private ArrayList<Variable> vars;
-    private boolean values[];
+    private Scope scope;
+    private long index;
 
     public Assignment(Assignment a) {
-        this(a.vars, a.values);
+        this(a.scope, a.index);
+    }
+
+    public Assignment(Scope scope, long index) {
+        this.scope = scope;
+        this.index = index;
     }
 
     public Assignment(ArrayList<Variable> vars, boolean... values) {
         if (vars.size() != values.length) {
             throw new RuntimeException("number of variables and values must be equal");
         }
-        this.vars = new ArrayList<>();
-        this.vars.addAll(vars);
-        this.values = values;
+        this.scope = new Scope(vars);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i]) {
+                this.index += scope.getStride(i);
+            }
+        }
     }
 
+    /**
+     * Creates the assignment of the given index in the mixed radix numbering of the
+     * variables, which is also its index in the table of a factor on them.
+     * 
+     * @param vars
+     *            The variables of the assignment
+     * @param index
+     *            The index of the assignment
+     */
     public Assignment(ArrayList<Variable> vars, int index) {
-        if (index > (1 << vars.size())) {
-            throw new RuntimeException("index out of bounds for this number of variables");
+        this.scope = new Scope(vars);
+        if (index < 0 || index >= scope.getAssignmentCount()) {
+            throw new RuntimeException("index out of bounds for these variables");
         }
-        this.vars = new ArrayList<>();
-        this.vars.addAll(vars);
-        values = new boolean[vars.size()];
-        if (vars.size() == 0) {
-            return; // empty assignment for a constant factor in this case
-        }
-        String binary = Integer.toBinaryString(index);
-        for (int i = 0; i < binary.length(); i++) {
-            values[i] = binary.charAt(binary.length() - i - 1) == '1';
+        this.index = index;
+    }
+
+    /**
+     * Creates the assignment of the given values to the given variables.
+     * 
+     * @param vars
+     *            The variables of the assignment
+     * @param values
+     *            The index of the value of each variable, in the same order
+     * @return A new assignment.
+     */
+    public static Assignment ofValues(ArrayList<Variable> vars, int... values) {
+        if (vars.size() != values.length) {
+            throw new RuntimeException("number of variables and values must be equal");
         }
-        for (int i = binary.length(); i < values.length; i++) {
-            values[i] = false;
+        Scope scope = new Scope(vars);
+        long index = 0;
+        for (int i = 0; i < values.length; i++) {
+            scope.get(i).checkValue(values[i]);
+            index += values[i] * scope.getStride(i);
         }
+        return new Assignment(scope, index);
     }
 
-    private void checkVariablePresence(Variable v) {
-        if (!vars.contains(v)) {
+    private int checkVariablePresence(Variable v) {
+        int position = scope.indexOf(v);
+        if (position < 0) {
             throw new RuntimeException("the variable " + v + " is not in this assignment");
         }
+        return position;
     }
 
     public ArrayList<Variable> getVariables() {
-        return vars;
+        return scope.toList();
+    }
+
+    public Scope getScope() {
+        return scope;
     }
 
+    /**
+     * Returns the value of the boolean variable v in this assignment. Only boolean
+     * variables have a boolean value; the value of other variables is given by
+     * {@link #getValueIndex(Variable)}.
+     * 
+     * @param v
+     *            A boolean variable of this assignment
+     * @return {@code true} if the value of v is 1
+     * @throws IllegalStateException
+     *             If v is not boolean
+     */
     public boolean getValue(Variable v) {
-        checkVariablePresence(v);
-        return values[vars.indexOf(v)];
+        v.checkBoolean();
+        return getValueIndex(v) == 1;
+    }
+
+    public int getValueIndex(Variable v) {
+        return valueAt(checkVariablePresence(v));
+    }
+
+    private int valueAt(int position) {
+        return (int) (index / scope.getStride(position) % scope.get(position).getCardinality());
     }
 
     /**
@@ -61,22 +119,15 @@ public class Assignment {
      * @return a decimal index corresponding to this assignment
      */
     public int toIndex() {
-        return toIndex(values);
+        return (int) index;
     }
 
     public void removeVariable(Variable v) {
-        checkVariablePresence(v);
-        boolean[] newValues = new boolean[vars.size() - 1];
-        int varIndex = vars.indexOf(v);
-        for (int i = 0; i < newValues.length; i++) {
-            if (i < varIndex) {
-                newValues[i] = values[i];
-            } else {
-                newValues[i] = values[i + 1];
-            }
-        }
-        values = newValues;
-        vars.remove(v);
+        int varIndex = checkVariablePresence(v);
+        long stride = scope.getStride(varIndex);
+        long blockSize = stride * v.getCardinality();
+        index = index % stride + index / blockSize * stride;
+        scope = scope.without(varIndex);
     }
 
     /**
@@ -108,24 +159,16 @@ public class Assignment {
      * @return The resulting merged assignment
      */
     public static Assignment merge(Assignment a1, Assignment a2) {
-        ArrayList<Variable> mergedVars = new ArrayList<>();
-        mergedVars.addAll(a1.vars);
-        for (Variable v : a2.vars) {
-            if (!a1.vars.contains(v)) {
-                mergedVars.add(v);
-            }
-        }
-        boolean values[] = new boolean[mergedVars.size()];
-        int i = 0;
-        for (Variable v : mergedVars) {
-            if (a1.vars.contains(v)) {
-                values[i] = a1.getValue(v);
-            } else {
-                values[i] = a2.getValue(v);
+        Scope mergedScope = a1.scope.union(a2.scope);
+        // a1's variables come first in the union, so its index is kept as is
+        long mergedIndex = a1.index;
+        for (int i = 0; i < a2.scope.size(); i++) {
+            Variable v = a2.scope.get(i);
+            if (!a1.scope.contains(v)) {
+                mergedIndex += a2.valueAt(i) * mergedScope.getStride(mergedScope.indexOf(v));
             }
-            i++;
         }
-        return new Assignment(mergedVars, values);
+        return new Assignment(mergedScope, mergedIndex);
     }
 
     /**
@@ -136,9 +179,10 @@ public class Assignment {
      * @return The list of all possible assignments for the specified variables
      */
     public static LinkedList<Assignment> assignments(ArrayList<Variable> vars) {
+        Scope scope = new Scope(vars);
         LinkedList<Assignment> set = new LinkedList<>();
-        for (int i = 0; i < (1 << vars.size()); i++) {
-            set.add(new Assignment(vars, i));
+        for (long i = 0; i < scope.getAssignmentCount(); i++) {
+            set.add(new Assignment(scope, i));
         }
         return set;
     }
@@ -149,12 +193,13 @@ public class Assignment {
 
     public String toString(boolean align) {
         String res = "";
-        for (int i = 0; i < values.length; i++) {
-            if (align && values[i]) {
+        for (int i = 0; i < scope.size(); i++) {
+            int value = valueAt(i);
+            if (align && value == 1 && scope.get(i).isBoolean()) {
                 res += " ";
             }
-            res += vars.get(i).toStringWithValue(values[i]);
-            if (i < values.length - 1) {
+            res += scope.get(i).toStringWithValue(value);
+            if (i < scope.size() - 1) {
                 res += ",";
             }
         }
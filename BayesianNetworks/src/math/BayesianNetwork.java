@@ -0,0 +1,179 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * An immutable list of factors, usually the conditional probability tables of a
+ * Bayesian network, where the first variable of each factor is the one whose
+ * distribution is given by the factor. A network can be shared by concurrent
+ * queries, as long as its factors are never modified.
+ * <p>
+ * All the variables of a network belong to the same {@link VariableRegistry}, and
+ * so must the variables of its queries.
+ */
+public final class BayesianNetwork {
+
+    private final List<Factor> factors;
+    private final List<Variable> variables;
+    // computed by the first query needing it, and never modified
+    private volatile Relevance relevance;
+
+    /**
+     * Creates a network from copies of the given factors, so that modifying them
+     * later does not affect the network. The copies of the factors with many zeros
+     * (deterministic relations) are stored sparse.
+     * 
+     * @param factors
+     *            The factors of the network
+     * @throws IllegalArgumentException
+     *             If the variables of the factors belong to different registries.
+     */
+    public BayesianNetwork(Collection<Factor> factors) {
+        LinkedList<Factor> copies = new LinkedList<>();
+        for (Factor f : factors) {
+            copies.add(new Factor(f).compact());
+        }
+        this.factors = Collections.unmodifiableList(copies);
+        this.variables = Collections.unmodifiableList(collectVariables(copies));
+    }
+
+    public BayesianNetwork(Factor... factors) {
+        this(Arrays.asList(factors));
+    }
+
+    private BayesianNetwork(List<Factor> factors, List<Variable> variables) {
+        this.factors = Collections.unmodifiableList(factors);
+        this.variables = Collections.unmodifiableList(variables);
+    }
+
+    /**
+     * Creates a network from the given factors without copying them, so that they
+     * can be mapped factors. They must never be modified.
+     */
+    static BayesianNetwork wrap(List<Factor> factors) {
+        ArrayList<Factor> shared = new ArrayList<>(factors);
+        return new BayesianNetwork(shared, collectVariables(shared));
+    }
+
+    private static ArrayList<Variable> collectVariables(List<Factor> factors) {
+        ArrayList<Variable> vars = new ArrayList<>();
+        HashSet<Variable> seen = new HashSet<>();
+        for (Factor f : factors) {
+            for (Variable v : f.getVariables()) {
+                if (!vars.isEmpty() && v.getRegistry() != vars.get(0).getRegistry()) {
+                    throw new IllegalArgumentException("The variables " + vars.get(0) + " and "
+                            + v + " belong to different registries");
+                }
+                if (seen.add(v)) {
+                    vars.add(v);
+                }
+            }
+        }
+        return vars;
+    }
+
+    /**
+     * Returns the factors of this network. They are shared by all the users of this
+     * network, and therefore must not be modified: use the static methods of
+     * {@link Factor}, which work on copies.
+     * 
+     * @return An unmodifiable list of the factors of this network.
+     */
+    public List<Factor> getFactors() {
+        return factors;
+    }
+
+    /**
+     * Returns the variables of this network, in the order of their first
+     * appearance in its factors.
+     * 
+     * @return An unmodifiable list of the variables of this network.
+     */
+    public List<Variable> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Returns the factors that a query depends on: the tables of the variables
+     * which are neither queried nor observed, and have no descendant that is, are
+     * left out, since summing them out only gives ones. When the result is to be
+     * normalized, the factors separated from the query variables by the evidence
+     * are left out as well, since they only contribute a constant. The factors
+     * which are not conditional probability tables are always kept, unless they are
+     * separated from the query.
+     * 
+     * @param evidence
+     *            The observed values of some variables
+     * @param normalize
+     *            If {@code true}, the result of the query is normalized.
+     * @param queryVariables
+     *            The variables of the query
+     * @return A new list of factors of this network, which must not be modified.
+     * @throws IllegalArgumentException
+     *             If a variable of the query belongs to another registry than the
+     *             variables of this network.
+     */
+    public List<Factor> getRelevantFactors(Evidence evidence, boolean normalize,
+            Variable... queryVariables) {
+        for (Variable v : queryVariables) {
+            checkRegistry(v);
+        }
+        for (Variable v : evidence.getVariables()) {
+            checkRegistry(v);
+        }
+        Relevance r = relevance;
+        if (r == null) {
+            // concurrent first queries may compute it twice, to the same result
+            r = new Relevance(factors);
+            relevance = r;
+        }
+        return r.select(evidence, normalize, queryVariables);
+    }
+
+    private void checkRegistry(Variable v) {
+        if (!variables.isEmpty() && v.getRegistry() != variables.get(0).getRegistry()) {
+            throw new IllegalArgumentException("The variable " + v
+                    + " belongs to another registry than the network");
+        }
+    }
+
+    /**
+     * Returns a new network with the factors of this network plus the given one.
+     * 
+     * @param f
+     *            The factor to add
+     * @return The new network.
+     */
+    public BayesianNetwork with(Factor f) {
+        // the factors of this network are never modified, only f needs a copy
+        ArrayList<Factor> newFactors = new ArrayList<>(factors);
+        newFactors.add(new Factor(f).compact());
+        return new BayesianNetwork(newFactors, collectVariables(newFactors));
+    }
+
+    /**
+     * Returns a new network with the factors of this network converted to log
+     * space, so that queries on it are computed in log space.
+     * 
+     * @return The new network.
+     * @see Factor#isLogSpace()
+     */
+    public BayesianNetwork toLogSpace() {
+        LinkedList<Factor> logFactors = new LinkedList<>();
+        for (Factor f : factors) {
+            logFactors.add(Factor.toLogSpace(f));
+        }
+        return new BayesianNetwork(logFactors);
+    }
+
+    @Override
+    public String toString() {
+        return factors.toString();
+    }
+}
@@ -0,0 +1,394 @@
+package math;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Reads a Bayesian network in the Bayesian Interchange Format (BIF). The document
+ * is parsed as a stream of tokens: only the table being read is held in memory,
+ * besides the factors already built.
+ * <p>
+ * A table given with the keyword {@code table} lists the probabilities with the
+ * value of the child varying slowest and the value of the last parent varying
+ * fastest. A table may also be given row by row, each row listing the
+ * distribution of the child for the values of the parents in parentheses, with a
+ * {@code default} row for the values of the parents not listed. The properties are
+ * ignored.
+ */
+public final class BifParser {
+
+    private final Tokenizer tokens;
+    // the variables of each file are interned in a registry of their own
+    private final VariableRegistry registry = new VariableRegistry();
+    private final HashMap<String, Variable> variables = new HashMap<>();
+    private final HashMap<Variable, List<String>> valueNames = new HashMap<>();
+    private final ArrayList<Factor> factors = new ArrayList<>();
+
+    private BifParser(Reader reader) {
+        this.tokens = new Tokenizer(reader);
+    }
+
+    /**
+     * Reads the BIF file at the given path, in UTF-8.
+     * 
+     * @param path
+     *            The file to read
+     * @return A new network with the conditional probability tables of the file.
+     * @throws IOException
+     *             If the file cannot be read, or is not valid.
+     */
+    public static BayesianNetwork parse(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return parse(reader);
+        }
+    }
+
+    /**
+     * Reads a BIF document from the given reader, which is not closed.
+     * 
+     * @param reader
+     *            The reader of the document
+     * @return A new network with the conditional probability tables of the
+     *         document.
+     * @throws IOException
+     *             If the document cannot be read, or is not valid.
+     */
+    public static BayesianNetwork parse(Reader reader) throws IOException {
+        return new BifParser(reader).parseNetwork();
+    }
+
+    private BayesianNetwork parseNetwork() throws IOException {
+        try {
+            String token;
+            while ((token = tokens.next()) != null) {
+                switch (token) {
+                case "network":
+                    skipNetwork();
+                    break;
+                case "variable":
+                    parseVariable();
+                    break;
+                case "probability":
+                    parseProbability();
+                    break;
+                default:
+                    throw tokens.error("unexpected " + token);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw tokens.error(e.getMessage());
+        }
+        return new BayesianNetwork(factors);
+    }
+
+    private void skipNetwork() throws IOException {
+        while (!tokens.expectAny().equals("{")) {
+            // name of the network
+        }
+        int depth = 1;
+        while (depth > 0) {
+            String token = tokens.expectAny();
+            if (token.equals("{")) {
+                depth++;
+            } else if (token.equals("}")) {
+                depth--;
+            }
+        }
+    }
+
+    private void parseVariable() throws IOException {
+        String name = tokens.expectAny();
+        tokens.expect("{");
+        List<String> values = null;
+        String token;
+        while (!(token = tokens.expectAny()).equals("}")) {
+            if (token.equals("type")) {
+                tokens.expect("discrete");
+                tokens.expect("[");
+                int cardinality = parseInt(tokens.expectAny());
+                tokens.expect("]");
+                tokens.expect("{");
+                values = new ArrayList<>();
+                while (!(token = tokens.expectAny()).equals("}")) {
+                    if (!token.equals(",")) {
+                        values.add(token);
+                    }
+                }
+                tokens.expect(";");
+                if (values.size() != cardinality) {
+                    throw tokens.error("the variable " + name + " has " + values.size()
+                            + " values instead of " + cardinality);
+                }
+            } else if (token.equals("property")) {
+                tokens.skipStatement();
+            } else {
+                throw tokens.error("unexpected " + token + " in the variable " + name);
+            }
+        }
+        if (values == null) {
+            throw tokens.error("the variable " + name + " has no type");
+        }
+        if (variables.containsKey(name)) {
+            throw tokens.error("the variable " + name + " is declared twice");
+        }
+        Variable v = registry.variable(name, values.toArray(new String[values.size()]));
+        variables.put(name, v);
+        valueNames.put(v, values);
+    }
+
+    private void parseProbability() throws IOException {
+        tokens.expect("(");
+        ArrayList<Variable> vars = new ArrayList<>();
+        vars.add(variable(tokens.expectAny()));
+        String token = tokens.expectAny();
+        if (token.equals("|")) {
+            while (!(token = tokens.expectAny()).equals(")")) {
+                if (!token.equals(",")) {
+                    vars.add(variable(token));
+                }
+            }
+        } else if (!token.equals(")")) {
+            throw tokens.error("expected | or ) instead of " + token);
+        }
+        tokens.expect("{");
+        Variable child = vars.get(0);
+        int cardinality = child.getCardinality();
+        double[] table = new double[Factor.tableSize(vars)];
+        Arrays.fill(table, Double.NaN);
+        // the child has the stride 1, each row is an assignment of the parents
+        BitSet rows = new BitSet();
+        double[] defaultRow = null;
+        while (!(token = tokens.expectAny()).equals("}")) {
+            switch (token) {
+            case "table":
+                TableLayout layout = new TableLayout(vars, vars);
+                while (!(token = tokens.expectAny()).equals(";")) {
+                    if (!token.equals(",")) {
+                        table[layout.next()] = parseDouble(token);
+                    }
+                }
+                if (layout.getCount() != layout.getSize()) {
+                    throw tokens.error("the table of " + child + " has " + layout.getCount()
+                            + " entries instead of " + layout.getSize());
+                }
+                rows.set(0, table.length / cardinality);
+                break;
+            case "default":
+                defaultRow = parseRow(cardinality);
+                break;
+            case "property":
+                tokens.skipStatement();
+                break;
+            case "(":
+                int row = 0;
+                int stride = 1;
+                for (int i = 1; i < vars.size(); i++) {
+                    if (i > 1) {
+                        tokens.expect(",");
+                    }
+                    row += valueIndex(vars.get(i), tokens.expectAny()) * stride;
+                    stride *= vars.get(i).getCardinality();
+                }
+                tokens.expect(")");
+                double[] values = parseRow(cardinality);
+                System.arraycopy(values, 0, table, row * cardinality, cardinality);
+                rows.set(row);
+                break;
+            default:
+                throw tokens.error("unexpected " + token + " in the probability of " + child);
+            }
+        }
+        int rowCount = table.length / cardinality;
+        if (defaultRow != null) {
+            for (int row = rows.nextClearBit(0); row < rowCount;
+                    row = rows.nextClearBit(row + 1)) {
+                System.arraycopy(defaultRow, 0, table, row * cardinality, cardinality);
+            }
+        } else if (rows.cardinality() < rowCount) {
+            throw tokens.error("the probability of " + child + " has no entries for "
+                    + (rowCount - rows.cardinality()) + " values of its parents");
+        }
+        factors.add(new Factor(vars, table, false));
+    }
+
+    /**
+     * Reads the given number of probabilities, up to the end of the statement.
+     */
+    private double[] parseRow(int cardinality) throws IOException {
+        double[] values = new double[cardinality];
+        int count = 0;
+        String token;
+        while (!(token = tokens.expectAny()).equals(";")) {
+            if (!token.equals(",")) {
+                if (count == cardinality) {
+                    throw tokens.error("too many probabilities, expected " + cardinality);
+                }
+                values[count++] = parseDouble(token);
+            }
+        }
+        if (count < cardinality) {
+            throw tokens.error("too few probabilities, expected " + cardinality);
+        }
+        return values;
+    }
+
+    private Variable variable(String name) throws IOException {
+        Variable v = variables.get(name);
+        if (v == null) {
+            throw tokens.error("the variable " + name + " is not declared");
+        }
+        return v;
+    }
+
+    private int valueIndex(Variable v, String valueName) throws IOException {
+        int index = valueNames.get(v).indexOf(valueName);
+        if (index < 0) {
+            throw tokens.error("the variable " + v + " has no value " + valueName);
+        }
+        return index;
+    }
+
+    private int parseInt(String token) throws IOException {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            throw tokens.error("expected an integer instead of " + token);
+        }
+    }
+
+    private double parseDouble(String token) throws IOException {
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw tokens.error("expected a probability instead of " + token);
+        }
+    }
+
+    /**
+     * Splits a BIF document into words, quoted strings, and punctuation, skipping
+     * the comments.
+     */
+    private static final class Tokenizer {
+        private static final String PUNCTUATION = "{}()[];,|";
+
+        private final Reader reader;
+        private final StringBuilder word = new StringBuilder();
+        private int line = 1;
+        // the character read in advance, -2 if none
+        private int pending = -2;
+
+        Tokenizer(Reader reader) {
+            this.reader = reader;
+        }
+
+        private int read() throws IOException {
+            int c = pending != -2 ? pending : reader.read();
+            pending = -2;
+            if (c == '\n') {
+                line++;
+            }
+            return c;
+        }
+
+        private void unread(int c) {
+            if (c == '\n') {
+                line--;
+            }
+            pending = c;
+        }
+
+        /**
+         * Returns the next token, or null at the end of the document.
+         */
+        String next() throws IOException {
+            int c = read();
+            while (true) {
+                while (c != -1 && Character.isWhitespace(c)) {
+                    c = read();
+                }
+                if (c != '/') {
+                    break;
+                }
+                int d = read();
+                if (d == '/') {
+                    while (c != -1 && c != '\n') {
+                        c = read();
+                    }
+                } else if (d == '*') {
+                    int previous = 0;
+                    c = read();
+                    while (c != -1 && !(previous == '*' && c == '/')) {
+                        previous = c;
+                        c = read();
+                    }
+                    c = read();
+                } else {
+                    unread(d);
+                    break;
+                }
+            }
+            if (c == -1) {
+                return null;
+            }
+            if (PUNCTUATION.indexOf(c) >= 0) {
+                return String.valueOf((char) c);
+            }
+            word.setLength(0);
+            if (c == '"') {
+                while ((c = read()) != '"') {
+                    if (c == -1) {
+                        throw error("unterminated string");
+                    }
+                    word.append((char) c);
+                }
+                return word.toString();
+            }
+            while (c != -1 && !Character.isWhitespace(c) && PUNCTUATION.indexOf(c) < 0) {
+                word.append((char) c);
+                c = read();
+            }
+            unread(c);
+            return word.toString();
+        }
+
+        /**
+         * Returns the next token, which must exist.
+         */
+        String expectAny() throws IOException {
+            String token = next();
+            if (token == null) {
+                throw error("unexpected end of the document");
+            }
+            return token;
+        }
+
+        void expect(String expected) throws IOException {
+            String token = expectAny();
+            if (!token.equals(expected)) {
+                throw error("expected " + expected + " instead of " + token);
+            }
+        }
+
+        /**
+         * Skips the tokens up to the end of the current statement.
+         */
+        void skipStatement() throws IOException {
+            while (!expectAny().equals(";")) {
+                // ignored
+            }
+        }
+
+        IOException error(String message) {
+            return new IOException("line " + line + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * An immutable influence diagram: a {@link BayesianNetwork} of chance variables,
+ * plus decision variables and utility factors. The decisions are made in the
+ * order in which they are added, and each of them is made knowing the values of
+ * the variables observed before it, as well as all the previous decisions and
+ * observations (no forgetting). The utility is the sum of the utility factors.
+ */
+public final class DecisionNetwork {
+
+    private final BayesianNetwork chance;
+    private final List<Variable> decisions;
+    // variables observed just before each decision
+    private final List<List<Variable>> observations;
+    private final List<Factor> utilities;
+
+    /**
+     * Creates a decision network without decisions nor utilities.
+     * 
+     * @param chance
+     *            The conditional probability tables of the chance variables, which
+     *            may depend on the decisions
+     */
+    public DecisionNetwork(BayesianNetwork chance) {
+        this(chance, new ArrayList<Variable>(), new ArrayList<List<Variable>>(),
+                new ArrayList<Factor>());
+    }
+
+    private DecisionNetwork(BayesianNetwork chance, List<Variable> decisions,
+            List<List<Variable>> observations, List<Factor> utilities) {
+        this.chance = chance;
+        this.decisions = Collections.unmodifiableList(decisions);
+        this.observations = Collections.unmodifiableList(observations);
+        this.utilities = Collections.unmodifiableList(utilities);
+    }
+
+    /**
+     * Returns a new decision network with the decisions of this one, followed by
+     * the given decision.
+     * 
+     * @param decision
+     *            The decision variable, which has no conditional probability table
+     * @param observedBefore
+     *            The chance variables whose values are known when the decision is
+     *            made, in addition to the ones known for the previous decisions
+     * @return The new decision network.
+     */
+    public DecisionNetwork withDecision(Variable decision, Variable... observedBefore) {
+        if (decisions.contains(decision)) {
+            throw new IllegalArgumentException("The decision " + decision + " is already made");
+        }
+        for (Factor f : chance.getFactors()) {
+            if (f.getVariables().get(0).equals(decision)) {
+                throw new IllegalArgumentException("The decision " + decision
+                        + " has a conditional probability table");
+            }
+        }
+        ArrayList<Variable> newDecisions = new ArrayList<>(decisions);
+        newDecisions.add(decision);
+        ArrayList<List<Variable>> newObservations = new ArrayList<>(observations);
+        ArrayList<Variable> observed = new ArrayList<>();
+        for (Variable v : observedBefore) {
+            observed.add(v);
+        }
+        newObservations.add(Collections.unmodifiableList(observed));
+        return new DecisionNetwork(chance, newDecisions, newObservations, utilities);
+    }
+
+    /**
+     * Returns a new decision network with the utilities of this one plus the given
+     * one.
+     * 
+     * @param utility
+     *            A utility factor, which is copied
+     * @return The new decision network.
+     */
+    public DecisionNetwork withUtility(Factor utility) {
+        if (utility.isLogSpace()) {
+            throw new IllegalArgumentException("A utility cannot be in log space");
+        }
+        ArrayList<Factor> newUtilities = new ArrayList<>(utilities);
+        newUtilities.add(new Factor(utility));
+        return new DecisionNetwork(chance, decisions, observations, newUtilities);
+    }
+
+    /**
+     * Returns a new decision network where the given variable is observed just
+     * before the given decision, if it was not already observed before.
+     * 
+     * @param decision
+     *            A decision of this network
+     * @param observation
+     *            The chance variable to observe
+     * @return The new decision network.
+     */
+    public DecisionNetwork withObservation(Variable decision, Variable observation) {
+        int k = indexOfDecision(decision);
+        for (int i = 0; i <= k; i++) {
+            if (observations.get(i).contains(observation)) {
+                return this;
+            }
+        }
+        ArrayList<List<Variable>> newObservations = new ArrayList<>(observations);
+        ArrayList<Variable> observed = new ArrayList<>(observations.get(k));
+        observed.add(observation);
+        newObservations.set(k, Collections.unmodifiableList(observed));
+        // it is not observed anymore at a later decision, since it is known earlier
+        for (int i = k + 1; i < observations.size(); i++) {
+            if (observations.get(i).contains(observation)) {
+                ArrayList<Variable> later = new ArrayList<>(observations.get(i));
+                later.remove(observation);
+                newObservations.set(i, Collections.unmodifiableList(later));
+            }
+        }
+        return new DecisionNetwork(chance, decisions, newObservations, utilities);
+    }
+
+    private int indexOfDecision(Variable decision) {
+        int k = decisions.indexOf(decision);
+        if (k < 0) {
+            throw new IllegalArgumentException("The variable " + decision + " is not a decision");
+        }
+        return k;
+    }
+
+    public BayesianNetwork getChanceNetwork() {
+        return chance;
+    }
+
+    /**
+     * Returns the decisions, in the order in which they are made.
+     * 
+     * @return An unmodifiable list of the decision variables.
+     */
+    public List<Variable> getDecisions() {
+        return decisions;
+    }
+
+    /**
+     * Returns the variables observed just before the given decision, and not
+     * before the previous decisions.
+     * 
+     * @param decision
+     *            A decision of this network
+     * @return An unmodifiable list of the variables observed.
+     */
+    public List<Variable> getObservedBefore(Variable decision) {
+        return observations.get(indexOfDecision(decision));
+    }
+
+    public List<Factor> getUtilities() {
+        return utilities;
+    }
+
+    @Override
+    public String toString() {
+        LinkedList<String> parts = new LinkedList<>();
+        for (int k = 0; k < decisions.size(); k++) {
+            parts.add(observations.get(k) + " -> " + decisions.get(k));
+        }
+        return chance + ", decisions " + parts + ", utilities " + utilities;
+    }
+}
@@ -0,0 +1,23 @@
+package math;
+
+/**
+ * Greedy strategies to choose the next variable to eliminate in the interaction
+ * graph of the factors (where two variables are adjacent if they appear in the
+ * same factor).
+ */
+public enum EliminationHeuristic {
+    /**
+     * Eliminates first the variable with the fewest neighbours.
+     */
+    MIN_DEGREE,
+    /**
+     * Eliminates first the variable whose elimination adds the fewest edges
+     * between its neighbours.
+     */
+    MIN_FILL,
+    /**
+     * Like {@link #MIN_FILL}, but each added edge weighs the product of the domain
+     * sizes of its two ends.
+     */
+    WEIGHTED_MIN_FILL;
+}
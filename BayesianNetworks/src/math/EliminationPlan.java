@@ -0,0 +1,200 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * An elimination order for the hidden variables of a query, along with the
+ * predicted size of the largest factor that variable elimination will create when
+ * following it.
+ */
+public class EliminationPlan {
+
+    private LinkedList<Variable> order;
+    private long maxFactorSize;
+
+    private EliminationPlan(LinkedList<Variable> order, long maxFactorSize) {
+        this.order = order;
+        this.maxFactorSize = maxFactorSize;
+    }
+
+    /**
+     * Returns the hidden variables in the order of their elimination.
+     * 
+     * @return The elimination order, which can be given to
+     *         {@link Factor#inference(LinkedList, LinkedList, LinkedList, LinkedList, boolean)}
+     */
+    public LinkedList<Variable> getOrder() {
+        return order;
+    }
+
+    /**
+     * Returns the number of entries of the largest factor created by variable
+     * elimination following this plan, including the final product over the
+     * query variables.
+     * 
+     * @return the predicted size of the largest intermediate factor
+     */
+    public long getMaxFactorSize() {
+        return maxFactorSize;
+    }
+
+    /**
+     * Computes an elimination order for the variables of the factors that are
+     * neither query variables nor evidence, using the interaction graph of the
+     * factors once restricted to the evidence.
+     * 
+     * @param factors
+     *            The list of all factors to consider
+     * @param queryVariables
+     *            The variables we want to see in the resulting factor
+     * @param evidence
+     *            The variables which have been set to a value as evidence
+     * @param heuristic
+     *            The strategy used to choose the next variable to eliminate
+     * @return The plan for the variable elimination of this query.
+     */
+    public static EliminationPlan compute(LinkedList<Factor> factors,
+            LinkedList<Variable> queryVariables, LinkedList<Variable> evidence,
+            EliminationHeuristic heuristic) {
+        // number the variables of the factors locally, in the order of their IDs
+        HashMap<Variable, Integer> indices = new HashMap<>();
+        ArrayList<Variable> scope = new ArrayList<>();
+        for (Factor f : factors) {
+            for (Variable v : f.getVariables()) {
+                if (!indices.containsKey(v)) {
+                    indices.put(v, -1);
+                    scope.add(v);
+                }
+            }
+        }
+        Collections.sort(scope, new Comparator<Variable>() {
+            @Override
+            public int compare(Variable v1, Variable v2) {
+                return Integer.compare(v1.getId(), v2.getId());
+            }
+        });
+        int n = scope.size();
+        Variable[] variables = scope.toArray(new Variable[n]);
+        int[] cardinalities = new int[n];
+        for (int i = 0; i < n; i++) {
+            indices.put(variables[i], i);
+            cardinalities[i] = variables[i].getCardinality();
+        }
+        BitSet observed = new BitSet();
+        for (Variable v : evidence) {
+            Integer i = indices.get(v);
+            if (i != null) {
+                observed.set(i);
+            }
+        }
+        BitSet queried = new BitSet();
+        for (Variable v : queryVariables) {
+            Integer i = indices.get(v);
+            if (i != null) {
+                queried.set(i);
+            }
+        }
+        // build the interaction graph of the restricted factors
+        BitSet[] neighbours = new BitSet[n];
+        BitSet remaining = new BitSet();
+        for (Factor f : factors) {
+            BitSet factorScope = new BitSet();
+            for (Variable v : f.getVariables()) {
+                int i = indices.get(v);
+                if (!observed.get(i)) {
+                    factorScope.set(i);
+                }
+            }
+            for (int i = factorScope.nextSetBit(0); i >= 0; i = factorScope.nextSetBit(i + 1)) {
+                if (neighbours[i] == null) {
+                    neighbours[i] = new BitSet();
+                }
+                neighbours[i].or(factorScope);
+                neighbours[i].clear(i);
+            }
+            remaining.or(factorScope);
+        }
+        // greedily eliminate the hidden variables
+        LinkedList<Variable> order = new LinkedList<>();
+        long maxFactorSize = 1;
+        BitSet hidden = (BitSet) remaining.clone();
+        hidden.andNot(queried);
+        while (!hidden.isEmpty()) {
+            int best = -1;
+            long bestCost = Long.MAX_VALUE;
+            for (int i = hidden.nextSetBit(0); i >= 0; i = hidden.nextSetBit(i + 1)) {
+                long cost = cost(heuristic, neighbours, cardinalities, i);
+                if (cost < bestCost) {
+                    best = i;
+                    bestCost = cost;
+                }
+            }
+            // the product of the factors containing the variable spans its neighbours
+            BitSet adjacent = neighbours[best];
+            maxFactorSize = Math.max(maxFactorSize,
+                    saturatedProduct(domainSize(adjacent, cardinalities), cardinalities[best]));
+            for (int i = adjacent.nextSetBit(0); i >= 0; i = adjacent.nextSetBit(i + 1)) {
+                neighbours[i].or(adjacent);
+                neighbours[i].clear(i);
+                neighbours[i].clear(best);
+            }
+            order.add(variables[best]);
+            hidden.clear(best);
+            remaining.clear(best);
+        }
+        // the final product spans all the remaining variables
+        maxFactorSize = Math.max(maxFactorSize, domainSize(remaining, cardinalities));
+        return new EliminationPlan(order, maxFactorSize);
+    }
+
+    /**
+     * Returns the cost of eliminating the variable of the given local index
+     * according to the heuristic. Lower is better.
+     */
+    private static long cost(EliminationHeuristic heuristic, BitSet[] neighbours,
+            int[] cardinalities, int index) {
+        BitSet adjacent = neighbours[index];
+        if (heuristic == EliminationHeuristic.MIN_DEGREE) {
+            return adjacent.cardinality();
+        }
+        long cost = 0;
+        for (int i = adjacent.nextSetBit(0); i >= 0; i = adjacent.nextSetBit(i + 1)) {
+            for (int j = adjacent.nextSetBit(i + 1); j >= 0; j = adjacent.nextSetBit(j + 1)) {
+                if (!neighbours[i].get(j)) {
+                    cost += heuristic == EliminationHeuristic.WEIGHTED_MIN_FILL
+                            ? cardinalities[i] * cardinalities[j] : 1;
+                }
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * Returns the number of entries of a factor on the given variables.
+     */
+    private static long domainSize(BitSet indices, int[] cardinalities) {
+        long size = 1;
+        for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i + 1)) {
+            size = saturatedProduct(size, cardinalities[i]);
+        }
+        return size;
+    }
+
+    /**
+     * Returns a * b, or Long.MAX_VALUE if it overflows.
+     */
+    private static long saturatedProduct(long a, long b) {
+        return a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b;
+    }
+
+    @Override
+    public String toString() {
+        ArrayList<Variable> list = new ArrayList<>(order);
+        return list + " (max factor size: " + maxFactorSize + ")";
+    }
+}
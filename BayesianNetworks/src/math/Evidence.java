@@ -0,0 +1,143 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable set of observed values for some variables. Unlike the values set
+ * directly on the variables, the same variables can be observed with different
+ * values in different Evidence objects used at the same time.
+ */
+public final class Evidence {
+
+    private static final Evidence EMPTY = new Evidence(new LinkedHashMap<Variable, Integer>());
+
+    private final Map<Variable, Integer> values;
+
+    private Evidence(LinkedHashMap<Variable, Integer> values) {
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Returns the evidence without any observation.
+     * 
+     * @return an empty evidence
+     */
+    public static Evidence empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns a new evidence containing the observations of this one, plus the
+     * observation of the given value for v. This evidence is not modified.
+     * 
+     * @param v
+     *            The observed variable
+     * @param value
+     *            The observed value of v
+     * @return The new evidence.
+     */
+    public Evidence with(Variable v, boolean value) {
+        return with(v, value ? 1 : 0);
+    }
+
+    /**
+     * Returns a new evidence containing the observations of this one, plus the
+     * observation of the value of the given index for v. This evidence is not
+     * modified.
+     * 
+     * @param v
+     *            The observed variable
+     * @param value
+     *            The index of the observed value of v
+     * @return The new evidence.
+     */
+    public Evidence with(Variable v, int value) {
+        v.checkValue(value);
+        LinkedHashMap<Variable, Integer> newValues = new LinkedHashMap<>(values);
+        newValues.put(v, value);
+        return new Evidence(newValues);
+    }
+
+    /**
+     * Returns a new evidence containing the observations of this one, except the
+     * one of v. This evidence is not modified.
+     * 
+     * @param v
+     *            The variable that is not observed anymore
+     * @return The new evidence.
+     */
+    public Evidence without(Variable v) {
+        if (!values.containsKey(v)) {
+            return this;
+        }
+        LinkedHashMap<Variable, Integer> newValues = new LinkedHashMap<>(values);
+        newValues.remove(v);
+        return new Evidence(newValues);
+    }
+
+    public boolean contains(Variable v) {
+        return values.containsKey(v);
+    }
+
+    /**
+     * Returns the observed value of the boolean variable v. Only boolean variables
+     * have a boolean value; the value of other variables is given by
+     * {@link #getValueIndex(Variable)}.
+     * 
+     * @param v
+     *            An observed boolean variable
+     * @return {@code true} if the observed value of v is 1
+     * @throws IllegalStateException
+     *             If v is not boolean
+     */
+    public boolean getValue(Variable v) {
+        v.checkBoolean();
+        return getValueIndex(v) == 1;
+    }
+
+    public int getValueIndex(Variable v) {
+        Integer value = values.get(v);
+        if (value == null) {
+            throw new IllegalArgumentException("the variable " + v + " is not observed");
+        }
+        return value;
+    }
+
+    /**
+     * Returns the observed variables, in the order of their observation.
+     * 
+     * @return A new list of the observed variables.
+     */
+    public ArrayList<Variable> getVariables() {
+        return new ArrayList<>(values.keySet());
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Evidence && ((Evidence) o).values.equals(values);
+    }
+
+    @Override
+    public int hashCode() {
+        return values.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        String res = "";
+        for (Map.Entry<Variable, Integer> e : values.entrySet()) {
+            if (!res.isEmpty()) {
+                res += ",";
+            }
+            res += e.getKey().toStringWithValue(e.getValue());
+        }
+        return res;
+    }
+}
@@ -1,12 +1,53 @@
 package math;
 
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.LinkedList;
 
 public class Factor {
 
     private ArrayList<Variable> vars; // variables
-    private Double[] values;
+    // IDs of the variables in increasing order, and their positions in vars
+    private int[] ids;
+    private int[] idPositions;
+    /*
+     * Flat table of values. The variable at position i in vars has a stride equal
+     * to the product of the cardinalities of the variables before it: the index of
+     * an assignment is the sum of the values of the variables multiplied by their
+     * strides. For boolean variables, the stride of the variable at position i is
+     * (1 << i).
+     */
+    private double[] values;
+    // strides of the variables in values, and number of entries of the table
+    private int[] strides;
+    private int size;
+    // whether values are the natural logarithms of the actual values
+    private boolean logSpace;
+    /*
+     * When the factor is sparse, values is null, and only the entries different
+     * from zero are stored, by increasing index.
+     */
+    private int[] sparseIndices;
+    private double[] sparseValues;
+    /*
+     * When the factor is mapped, values and sparseIndices are null, and the dense
+     * table is read from this buffer, usually a view of a memory-mapped file. A
+     * mapped factor is read-only: its operations in place raise an exception, the
+     * static ones work on heap copies.
+     */
+    private DoubleBuffer mapped;
+
+    // maximum proportion of non-zero entries for a factor to be stored sparse
+    private static final double SPARSE_MAX_DENSITY = 0.25;
+
+    // operations combining the entries of two tables
+    private static final int PRODUCT = 0;
+    private static final int SUM = 1;
+    private static final int QUOTIENT = 2;
+    private static final int DIFFERENCE = 3;
+    private static final int LOG_SUM = 4;
 
     public Factor(Variable... variables) {
         if (variables.length == 0) {
@@ -16,6 +57,7 @@ public class Factor {
         for (Variable v : variables) {
             this.vars.add(v);
         }
+        updateIds();
         initValues();
     }
 
@@ -25,6 +67,7 @@ public class Factor {
         }
         this.vars = new ArrayList<>();
         this.vars.addAll(variables);
+        updateIds();
         initValues();
     }
 
@@ -37,17 +80,140 @@ public class Factor {
     public Factor(Factor f) {
         this.vars = new ArrayList<>();
         this.vars.addAll(f.vars);
-        this.values = new Double[f.values.length];
-        for (int i = 0; i < f.values.length; i++) {
-            this.values[i] = f.values[i];
+        this.ids = f.ids;
+        this.idPositions = f.idPositions;
+        this.strides = f.strides;
+        this.size = f.size;
+        this.logSpace = f.logSpace;
+        if (f.values != null) {
+            this.values = f.values.clone();
+        } else if (f.mapped != null) {
+            this.values = new double[size];
+            f.mapped.duplicate().get(this.values);
+        } else {
+            this.sparseIndices = f.sparseIndices.clone();
+            this.sparseValues = f.sparseValues.clone();
+        }
+    }
+
+    /**
+     * Create a factor on the given variables (possibly none, for a constant
+     * factor) using the given table without copying it.
+     */
+    Factor(ArrayList<Variable> variables, double[] values, boolean logSpace) {
+        this.vars = variables;
+        this.values = values;
+        this.logSpace = logSpace;
+        updateIds();
+    }
+
+    /**
+     * Create a sparse factor on the given variables from its non-zero entries, by
+     * increasing index, without copying them.
+     */
+    static Factor sparse(ArrayList<Variable> variables, int[] indices, double[] values,
+            boolean logSpace) {
+        Factor f = new Factor(variables, (double[]) null, logSpace);
+        for (int k = 0; k < indices.length; k++) {
+            if (indices[k] < 0 || indices[k] >= f.size || k > 0 && indices[k] <= indices[k - 1]) {
+                throw new IllegalArgumentException("The indices of the entries of " + f
+                        + " must be increasing, between 0 and " + (f.size - 1));
+            }
         }
+        f.sparseIndices = indices;
+        f.sparseValues = values;
+        return f;
+    }
+
+    /**
+     * Create a read-only factor on the given variables whose dense table is read
+     * from the given buffer, without copying it.
+     */
+    Factor(ArrayList<Variable> variables, DoubleBuffer mapped, boolean logSpace) {
+        this.vars = variables;
+        this.logSpace = logSpace;
+        updateIds();
+        if (mapped.remaining() != size) {
+            throw new IllegalArgumentException("The table of " + this + " has " + size
+                    + " entries, not " + mapped.remaining());
+        }
+        this.mapped = mapped.slice();
+    }
+
+    /**
+     * Rebuilds the sorted array of the IDs of the variables and the strides of the
+     * variables, after the variables have changed.
+     */
+    private void updateIds() {
+        for (Variable v : vars) {
+            if (v.getRegistry() != vars.get(0).getRegistry()) {
+                throw new IllegalArgumentException("The variables " + vars.get(0) + " and " + v
+                        + " belong to different registries");
+            }
+        }
+        strides = new int[vars.size()];
+        size = 1;
+        for (int i = 0; i < strides.length; i++) {
+            strides[i] = size;
+            size = checkedProduct(size, vars.get(i).getCardinality());
+        }
+        long[] pairs = new long[vars.size()];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = ((long) vars.get(i).getId() << 32) | i;
+        }
+        Arrays.sort(pairs);
+        ids = new int[pairs.length];
+        idPositions = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            ids[i] = (int) (pairs[i] >>> 32);
+            idPositions[i] = (int) pairs[i];
+        }
+    }
+
+    /**
+     * Returns the number of entries of the table of a factor on the given
+     * variables, the product of their cardinalities.
+     */
+    static int tableSize(ArrayList<Variable> variables) {
+        int size = 1;
+        for (Variable v : variables) {
+            size = checkedProduct(size, v.getCardinality());
+        }
+        return size;
+    }
+
+    private static int checkedProduct(int size, int cardinality) {
+        if (size > Integer.MAX_VALUE / cardinality) {
+            throw new IllegalArgumentException("the table of the factor would have more than "
+                    + Integer.MAX_VALUE + " entries");
+        }
+        return size * cardinality;
+    }
+
+    /**
+     * Returns the stride of the variable at the given position in the table of
+     * this factor.
+     */
+    int stride(int position) {
+        return strides[position];
+    }
+
+    /**
+     * Returns the position of v in the variables of this factor, or -1 if v is not
+     * a variable of this factor.
+     */
+    private int positionOf(Variable v) {
+        int k = Arrays.binarySearch(ids, v.getId());
+        // a variable of another registry may have the same ID
+        return k < 0 || vars.get(idPositions[k]).getRegistry() != v.getRegistry() ? -1
+                : idPositions[k];
     }
 
     /**
      * Initialize {@link Double#NaN} values.
      */
     private void initValues() {
-        values = new Double[1 << vars.size()];
+        values = new double[size];
         for (int i = 0; i < values.length; i++) {
             values[i] = Double.NaN;
         }
@@ -57,7 +223,7 @@ public class Factor {
      * Raises an exception if the variable is not one of this factor.
      */
     private void checkVariablePresence(Variable v) {
-        if (!vars.contains(v)) {
+        if (positionOf(v) < 0) {
             throw new IllegalArgumentException("This factor does not contain the variable " + v);
         }
     }
@@ -77,24 +243,402 @@ public class Factor {
     }
 
     public void setValue(double value, boolean... assignment) {
-        values[Assignment.toIndex(assignment)] = value;
+        setValueAt(indexOf(assignment), value);
+    }
+
+    /**
+     * Sets the value of the entry where each variable of this factor takes the
+     * value of the given index, in the order of {@link #getVariables()}.
+     * 
+     * @param value
+     *            The new value of the entry
+     * @param assignment
+     *            The indices of the values of the variables
+     */
+    public void setValue(double value, int... assignment) {
+        setValueAt(indexOf(assignment), value);
     }
 
     public void setValue(double value, Assignment assignment) {
         checkAssignmentVariables(assignment);
-        values[assignment.toIndex()] = value;
+        setValueAt(indexOf(assignment), value);
     }
 
     public double getValue(boolean... assignment) {
-        return values[Assignment.toIndex(assignment)];
+        return valueAt(indexOf(assignment));
+    }
+
+    public double getValue(int... assignment) {
+        return valueAt(indexOf(assignment));
     }
 
     public double getValue(Assignment assignment) {
-        return values[assignment.toIndex()];
+        return valueAt(indexOf(assignment));
+    }
+
+    /**
+     * Returns the value at the given index of the table, whether it is stored
+     * dense or sparse.
+     */
+    double valueAt(int index) {
+        if (values != null) {
+            return values[index];
+        }
+        if (mapped != null) {
+            return mapped.get(index);
+        }
+        int k = Arrays.binarySearch(sparseIndices, index);
+        return k < 0 ? zero() : sparseValues[k];
+    }
+
+    /**
+     * Sets the value at the given index of the table, whether it is stored dense
+     * or sparse.
+     */
+    private void setValueAt(int index, double value) {
+        checkWritable();
+        if (values != null) {
+            values[index] = value;
+            return;
+        }
+        int k = Arrays.binarySearch(sparseIndices, index);
+        if (k >= 0) {
+            if (value == zero()) {
+                // remove the entry
+                int n = sparseIndices.length;
+                System.arraycopy(sparseIndices, k + 1, sparseIndices, k, n - k - 1);
+                System.arraycopy(sparseValues, k + 1, sparseValues, k, n - k - 1);
+                sparseIndices = Arrays.copyOf(sparseIndices, n - 1);
+                sparseValues = Arrays.copyOf(sparseValues, n - 1);
+            } else {
+                sparseValues[k] = value;
+            }
+        } else if (value != zero()) {
+            // insert the entry
+            int insertion = -k - 1;
+            int n = sparseIndices.length;
+            int[] newIndices = new int[n + 1];
+            double[] newValues = new double[n + 1];
+            System.arraycopy(sparseIndices, 0, newIndices, 0, insertion);
+            System.arraycopy(sparseValues, 0, newValues, 0, insertion);
+            newIndices[insertion] = index;
+            newValues[insertion] = value;
+            System.arraycopy(sparseIndices, insertion, newIndices, insertion + 1, n - insertion);
+            System.arraycopy(sparseValues, insertion, newValues, insertion + 1, n - insertion);
+            sparseIndices = newIndices;
+            sparseValues = newValues;
+        }
+    }
+
+    /**
+     * Raises an exception if this factor is mapped, and therefore read-only.
+     */
+    private void checkWritable() {
+        if (mapped != null) {
+            throw new IllegalStateException("The factor " + this
+                    + " is mapped, only copies of it can be modified");
+        }
+    }
+
+    /**
+     * Returns whether this factor is mapped: its table is read from a buffer,
+     * usually a memory-mapped file, and it cannot be modified in place.
+     * 
+     * @return {@code true} if this factor is read-only
+     * @see NetworkFile#map(java.nio.file.Path)
+     */
+    public boolean isMapped() {
+        return mapped != null;
+    }
+
+    /**
+     * Returns the value of the entries that are not stored when the factor is
+     * sparse: 0, or its logarithm in log space.
+     */
+    private double zero() {
+        return logSpace ? Double.NEGATIVE_INFINITY : 0;
+    }
+
+    /**
+     * Returns the index in this factor's table of the values given to this factor's
+     * variables by the assignment, whatever the order of its variables.
+     */
+    private int indexOf(Assignment assignment) {
+        int index = 0;
+        for (int i = 0; i < vars.size(); i++) {
+            index += assignment.getValueIndex(vars.get(i)) * strides[i];
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index in this factor's table of the given values of this
+     * factor's variables, false and true standing for the values 0 and 1.
+     */
+    private int indexOf(boolean[] assignment) {
+        checkAssignmentLength(assignment.length);
+        int index = 0;
+        for (int i = 0; i < assignment.length; i++) {
+            if (assignment[i]) {
+                index += strides[i];
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index in this factor's table of the given indices of the values
+     * of this factor's variables.
+     */
+    private int indexOf(int[] assignment) {
+        checkAssignmentLength(assignment.length);
+        int index = 0;
+        for (int i = 0; i < assignment.length; i++) {
+            vars.get(i).checkValue(assignment[i]);
+            index += assignment[i] * strides[i];
+        }
+        return index;
+    }
+
+    private void checkAssignmentLength(int length) {
+        if (length != vars.size()) {
+            throw new IllegalArgumentException("number of variables and values must be equal");
+        }
     }
 
     public boolean contains(Variable v) {
-        return vars.contains(v);
+        return positionOf(v) >= 0;
+    }
+
+    /**
+     * Returns whether this factor is a conditional distribution of its first
+     * variable: for each value of its other variables, the values of the first one
+     * sum to one, up to the given tolerance. Summing out the first variable of
+     * such a factor gives a factor of ones, which is why the variables which only
+     * appear as the first variable of such a factor can be left out of a query.
+     * 
+     * @param tolerance
+     *            The maximum difference between each sum and one
+     * @return {@code true} if this factor is a conditional probability table
+     */
+    public boolean isConditional(double tolerance) {
+        if (vars.isEmpty()) {
+            return false;
+        }
+        // the first variable has the stride 1, each row is a block of its values
+        int cardinality = vars.get(0).getCardinality();
+        for (int row = 0; row < size; row += cardinality) {
+            double sum = 0;
+            for (int i = row; i < row + cardinality; i++) {
+                sum += logSpace ? Math.exp(valueAt(i)) : valueAt(i);
+            }
+            if (Math.abs(sum - 1) > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether this factor is in log space, where its table contains the
+     * natural logarithms of its values. In log space, products become sums, and
+     * sums out are computed with a stable log-sum-exp, so that tiny values do not
+     * underflow. The values given to and returned by {@link #setValue} and
+     * {@link #getValue} are logarithms as well.
+     * 
+     * @return {@code true} if this factor is in log space
+     */
+    public boolean isLogSpace() {
+        return logSpace;
+    }
+
+    /**
+     * Converts this factor to log space. Does nothing if it is already in log
+     * space.
+     * 
+     * @return This factor, in log space.
+     */
+    public Factor toLogSpace() {
+        checkWritable();
+        if (!logSpace) {
+            // the implicit zeros of a sparse factor become implicit -infinity
+            double[] table = values != null ? values : sparseValues;
+            for (int i = 0; i < table.length; i++) {
+                table[i] = Math.log(table[i]);
+            }
+            logSpace = true;
+        }
+        return this;
+    }
+
+    /**
+     * Converts this factor back from log space. Does nothing if it is not in log
+     * space.
+     * 
+     * @return This factor, with its actual values.
+     */
+    public Factor toProbabilitySpace() {
+        checkWritable();
+        if (logSpace) {
+            double[] table = values != null ? values : sparseValues;
+            for (int i = 0; i < table.length; i++) {
+                table[i] = Math.exp(table[i]);
+            }
+            logSpace = false;
+        }
+        return this;
+    }
+
+    /**
+     * Returns whether this factor is sparse, where only its entries different from
+     * zero are stored. Sparse and dense factors can be combined in all operations,
+     * whose cost then depends on the number of non-zero entries of the sparse
+     * factors.
+     * 
+     * @return {@code true} if this factor is stored sparse
+     */
+    public boolean isSparse() {
+        return values == null && mapped == null;
+    }
+
+    /**
+     * Stores this factor sparse. Does nothing if it is already sparse.
+     * 
+     * @return This factor, stored sparse.
+     */
+    public Factor toSparse() {
+        checkWritable();
+        if (values != null) {
+            double zero = zero();
+            int count = 0;
+            for (double value : values) {
+                if (value != zero) {
+                    count++;
+                }
+            }
+            sparseIndices = new int[count];
+            sparseValues = new double[count];
+            int k = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != zero) {
+                    sparseIndices[k] = i;
+                    sparseValues[k++] = values[i];
+                }
+            }
+            values = null;
+        }
+        return this;
+    }
+
+    /**
+     * Stores this factor dense. Does nothing if it is already dense.
+     * 
+     * @return This factor, stored dense.
+     */
+    public Factor toDense() {
+        if (isSparse()) {
+            values = new double[size];
+            Arrays.fill(values, zero());
+            for (int k = 0; k < sparseIndices.length; k++) {
+                values[sparseIndices[k]] = sparseValues[k];
+            }
+            sparseIndices = null;
+            sparseValues = null;
+        }
+        return this;
+    }
+
+    /**
+     * Stores this factor sparse if few of its entries are different from zero,
+     * and dense otherwise.
+     * 
+     * @return This factor, stored in the representation best suited to its
+     *         density.
+     */
+    public Factor compact() {
+        checkWritable();
+        int nonZeros;
+        if (values == null) {
+            nonZeros = sparseIndices.length;
+        } else {
+            nonZeros = 0;
+            double zero = zero();
+            for (double value : values) {
+                if (value != zero) {
+                    nonZeros++;
+                }
+            }
+        }
+        if (nonZeros <= SPARSE_MAX_DENSITY * size) {
+            return toSparse();
+        } else {
+            return toDense();
+        }
+    }
+
+    /**
+     * Raises an exception if the factors are not both in log space or both in
+     * probability space.
+     */
+    static void checkSameSpace(Factor f1, Factor f2) {
+        if (f1.logSpace != f2.logSpace) {
+            throw new IllegalArgumentException("Cannot combine a factor in log space with a "
+                    + "factor in probability space");
+        }
+    }
+
+    /**
+     * Returns the variables of this factor.
+     * 
+     * @return A new list of the variables of this factor, in the order of the
+     *         values given to {@link #setValue(double, int...)}.
+     */
+    public ArrayList<Variable> getVariables() {
+        return new ArrayList<>(vars);
+    }
+
+    /**
+     * Returns the table of this factor, where the variable at position i in
+     * {@link #getVariables()} has a stride equal to the product of the
+     * cardinalities of the variables before it: the index of an assignment is the
+     * sum of the values of the variables multiplied by their strides.
+     * 
+     * @return A copy of the table of this factor.
+     */
+    public double[] getValues() {
+        if (values == null) {
+            // copy the sparse or mapped table
+            return new Factor(this).toDense().values;
+        }
+        return values.clone();
+    }
+
+    /**
+     * Returns the number of entries of the table of this factor, which is the
+     * product of the cardinalities of its variables, whether it is stored dense or
+     * sparse.
+     * 
+     * @return the number of assignments of the variables of this factor
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the table of this factor without copying it, or null if this factor
+     * is sparse or mapped.
+     */
+    double[] table() {
+        return values;
+    }
+
+    /**
+     * Returns the IDs of the variables of this factor, in increasing order.
+     * 
+     * @return A new sorted array of the IDs of the variables of this factor.
+     */
+    public int[] getVariableIds() {
+        return ids.clone();
     }
 
     /**
@@ -107,21 +651,41 @@ public class Factor {
      * @return This factor, which has been restricted.
      */
     public Factor restrict(Variable v, boolean value) {
+        return restrict(v, value ? 1 : 0);
+    }
+
+    /**
+     * Restrict the variable v to the value of the given index in this factor.
+     * 
+     * @param v
+     *            The variable to restrict in this factor
+     * @param value
+     *            The index of the value for the restriction
+     * @return This factor, which has been restricted.
+     */
+    public Factor restrict(Variable v, int value) {
+        checkWritable();
         checkVariablePresence(v);
-        Double newValues[] = new Double[1 << (vars.size() - 1)];
-        // copy the values for the restricted factor
-        for (Assignment a : Assignment.assignments(vars)) {
-            // skip the assignments which are inconsistent with the given value for v
-            if (a.getValue(v) != value) {
-                continue;
+        v.checkValue(value);
+        int stride = strides[positionOf(v)];
+        int cardinality = v.getCardinality();
+        if (values == null) {
+            sparseRestrict(stride, cardinality, value);
+            vars.remove(v);
+            updateIds();
+            return compact();
+        }
+        double newValues[] = new double[values.length / cardinality];
+        // copy the blocks of values consistent with the given value for v
+        int offset = value * stride;
+        int k = 0;
+        for (int high = 0; high < values.length; high += stride * cardinality) {
+            for (int low = 0; low < stride; low++) {
+                newValues[k++] = values[high + offset + low];
             }
-            // create the corresponding assignment without v
-            Assignment shorterAssignment = new Assignment(a);
-            shorterAssignment.removeVariable(v);
-            // copy the probability for this assignment in the new factor
-            newValues[shorterAssignment.toIndex()] = getValue(a);
         }
         vars.remove(v);
+        updateIds();
         values = newValues;
         return this;
     }
@@ -135,38 +699,259 @@ public class Factor {
      *         removed).
      */
     public Factor sumout(Variable v) {
+        checkWritable();
         checkVariablePresence(v);
-        Double newValues[] = new Double[1 << (vars.size() - 1)];
-        for (int i = 0; i < newValues.length; i++) {
-            newValues[i] = Double.NaN;
-        }
-        // fill the values of the new factor
-        for (Assignment a : Assignment.assignments(vars)) {
-            // create the corresponding assignment without v
-            Assignment shorterAssignment = new Assignment(a);
-            shorterAssignment.removeVariable(v);
-            // add the probability for this assignment in the new factor
-            int index = shorterAssignment.toIndex();
-            Double value = newValues[index];
-            if (value.equals(Double.NaN)) {
-                newValues[index] = getValue(a);
-            } else {
-                newValues[index] = getValue(a) + value;
-            }
+        int stride = strides[positionOf(v)];
+        int cardinality = v.getCardinality();
+        if (values == null) {
+            sparseEliminate(stride, cardinality, false, null);
+            vars.remove(v);
+            updateIds();
+            return compact();
+        }
+        double newValues[] = new double[values.length / cardinality];
+        sumoutKernel(values, stride, cardinality, newValues, 0, newValues.length, logSpace);
+        vars.remove(v);
+        updateIds();
+        values = newValues;
+        return this;
+    }
+
+    /**
+     * Max out the variable v in this factor: each entry of the result is the
+     * largest of the entries for all the values of v.
+     * 
+     * @param v
+     *            The variable to max out
+     * @return This factor, where the variable v has been maxed out (and therefore
+     *         removed).
+     */
+    public Factor maxout(Variable v) {
+        return maxout(v, null);
+    }
+
+    /**
+     * Max out the variable v in this factor, recording for each entry of the result
+     * the value of v that maximizes it, which allows to recover the maximizing
+     * assignment after the other variables have been maxed out.
+     * 
+     * @param v
+     *            The variable to max out
+     * @param argmax
+     *            The array receiving the index of the maximizing value of v for each
+     *            entry of the result, in the order of its table, or null. It must
+     *            have at least {@link #getSize()} / cardinality of v entries.
+     * @return This factor, where the variable v has been maxed out (and therefore
+     *         removed).
+     */
+    public Factor maxout(Variable v, int[] argmax) {
+        checkWritable();
+        checkVariablePresence(v);
+        int stride = strides[positionOf(v)];
+        int cardinality = v.getCardinality();
+        if (argmax != null && argmax.length < size / cardinality) {
+            throw new IllegalArgumentException("The argmax array needs " + size / cardinality
+                    + " entries");
+        }
+        if (values == null) {
+            sparseEliminate(stride, cardinality, true, argmax);
+            vars.remove(v);
+            updateIds();
+            return compact();
         }
+        double newValues[] = new double[values.length / cardinality];
+        maxoutKernel(values, stride, cardinality, newValues, argmax, 0, newValues.length);
         vars.remove(v);
+        updateIds();
         values = newValues;
         return this;
     }
 
+    /**
+     * Keeps the non-zero entries where the variable with the given stride and
+     * cardinality has the given value, and removes this variable from their
+     * indices.
+     */
+    private void sparseRestrict(int stride, int cardinality, int value) {
+        int[] newIndices = new int[sparseIndices.length];
+        double[] newValues = new double[sparseValues.length];
+        int count = 0;
+        for (int k = 0; k < sparseIndices.length; k++) {
+            int index = sparseIndices[k];
+            if (index / stride % cardinality == value) {
+                newIndices[count] = index % stride + index / (stride * cardinality) * stride;
+                newValues[count++] = sparseValues[k];
+            }
+        }
+        sparseIndices = Arrays.copyOf(newIndices, count);
+        sparseValues = Arrays.copyOf(newValues, count);
+    }
+
+    /**
+     * Sums out, or maxes out, the variable with the given stride and cardinality
+     * from the non-zero entries. The entries with the same values for the variables
+     * after it form a block, made of one run per value of the variable: all the
+     * runs are sorted by the values of the variables before it, so they are merged
+     * in linear time. When maxing out, the implicit zeros of the values of the
+     * variable missing from the runs are candidates as well.
+     */
+    private void sparseEliminate(int stride, int cardinality, boolean max, int[] argmax) {
+        if (argmax != null) {
+            Arrays.fill(argmax, 0, size / cardinality, 0);
+        }
+        int n = sparseIndices.length;
+        int[] newIndices = new int[n];
+        double[] newValues = new double[n];
+        int blockSize = stride * cardinality;
+        // bounds of the run of each value of the variable, and merge positions
+        int[] runEnds = new int[cardinality];
+        int[] heads = new int[cardinality];
+        int count = 0;
+        int start = 0;
+        while (start < n) {
+            int high = sparseIndices[start] / blockSize;
+            int end = start;
+            while (end < n && sparseIndices[end] / blockSize == high) {
+                end++;
+            }
+            int position = start;
+            for (int j = 0; j < cardinality; j++) {
+                heads[j] = position;
+                while (position < end && sparseIndices[position] / stride % cardinality == j) {
+                    position++;
+                }
+                runEnds[j] = position;
+            }
+            int base = high * stride;
+            while (true) {
+                int low = Integer.MAX_VALUE;
+                for (int j = 0; j < cardinality; j++) {
+                    if (heads[j] < runEnds[j]) {
+                        low = Math.min(low, sparseIndices[heads[j]] % stride);
+                    }
+                }
+                if (low == Integer.MAX_VALUE) {
+                    break;
+                }
+                double result = max ? Double.NEGATIVE_INFINITY : zero();
+                int best = -1;
+                int missing = -1;
+                for (int j = 0; j < cardinality; j++) {
+                    if (heads[j] < runEnds[j] && sparseIndices[heads[j]] % stride == low) {
+                        double value = sparseValues[heads[j]++];
+                        if (!max) {
+                            result = logSpace ? logSumExp(result, value) : result + value;
+                        } else if (best < 0 || value > result) {
+                            result = value;
+                            best = j;
+                        }
+                    } else if (missing < 0) {
+                        missing = j;
+                    }
+                }
+                if (max && missing >= 0 && zero() > result) {
+                    result = zero();
+                    best = missing;
+                }
+                if (argmax != null) {
+                    argmax[base + low] = Math.max(best, 0);
+                }
+                if (result != zero()) {
+                    newIndices[count] = base + low;
+                    newValues[count++] = result;
+                }
+            }
+            start = end;
+        }
+        sparseIndices = Arrays.copyOf(newIndices, count);
+        sparseValues = Arrays.copyOf(newValues, count);
+    }
+
+    /**
+     * Writes the entries [from, to) of the sum out of the variable with the given
+     * stride and cardinality in the table values into result. The entries for the
+     * successive values of the variable are in blocks of stride entries, one after
+     * the other.
+     */
+    static void sumoutKernel(double[] values, int stride, int cardinality, double[] result,
+            int from, int to, boolean logSpace) {
+        for (int k = from; k < to; k++) {
+            int low = k % stride;
+            int index = (k - low) * cardinality + low;
+            double sum = values[index];
+            for (int j = 1; j < cardinality; j++) {
+                index += stride;
+                sum = logSpace ? logSumExp(sum, values[index]) : sum + values[index];
+            }
+            result[k] = sum;
+        }
+    }
+
+    /**
+     * Writes the entries [from, to) of the max out of the variable with the given
+     * stride and cardinality in the table values into result, like
+     * {@link #sumoutKernel}, and the index of the maximizing value of the variable
+     * for each of them into argmax, unless it is null. The maximum is the same in
+     * log space.
+     */
+    static void maxoutKernel(double[] values, int stride, int cardinality, double[] result,
+            int[] argmax, int from, int to) {
+        for (int k = from; k < to; k++) {
+            int low = k % stride;
+            int index = (k - low) * cardinality + low;
+            double max = values[index];
+            int best = 0;
+            for (int j = 1; j < cardinality; j++) {
+                index += stride;
+                if (values[index] > max) {
+                    max = values[index];
+                    best = j;
+                }
+            }
+            result[k] = max;
+            if (argmax != null) {
+                argmax[k] = best;
+            }
+        }
+    }
+
+    /**
+     * Returns log(exp(a) + exp(b)) without overflow nor underflow.
+     */
+    static double logSumExp(double a, double b) {
+        double max = Math.max(a, b);
+        if (max == Double.NEGATIVE_INFINITY) {
+            return max;
+        }
+        return max + Math.log1p(Math.exp(Math.min(a, b) - max));
+    }
+
     /**
      * Normalizes this factor.
      * 
      * @return This factor, which have been normalized.
      */
     public Factor normalize() {
-        float sum = 0;
-        for (Double value : values) {
+        checkWritable();
+        double[] values = this.values != null ? this.values : sparseValues;
+        if (logSpace) {
+            // subtract the log of the sum, computed relatively to the maximum
+            double max = Double.NEGATIVE_INFINITY;
+            for (double value : values) {
+                max = Math.max(max, value);
+            }
+            double sum = 0;
+            for (double value : values) {
+                sum += Math.exp(value - max);
+            }
+            double logSum = max + Math.log(sum);
+            for (int i = 0; i < values.length; i++) {
+                values[i] -= logSum;
+            }
+            return this;
+        }
+        double sum = 0;
+        for (double value : values) {
             sum += value;
         }
         for (int i = 0; i < values.length; i++) {
@@ -191,6 +976,46 @@ public class Factor {
         return new Factor(f).restrict(var, value);
     }
 
+    /**
+     * The static version of {@link #restrict(Variable, int)}, which does not modify
+     * the factor f.
+     * 
+     * @param f
+     *            The factor to restrict a copy of
+     * @param var
+     *            The variable to fix the value of
+     * @param value
+     *            The index of the value of var
+     * @return A new factor, the restricted version of f.
+     */
+    public static Factor restrict(Factor f, Variable var, int value) {
+        return new Factor(f).restrict(var, value);
+    }
+
+    /**
+     * Restricts the factor f to all the observations of the evidence that concern
+     * its variables. Does not modify f.
+     * 
+     * @param f
+     *            The factor to restrict
+     * @param evidence
+     *            The observed values of some variables
+     * @return A new factor, the restricted version of f, or f itself if none of its
+     *         variables is observed.
+     */
+    public static Factor restrict(Factor f, Evidence evidence) {
+        Factor res = f;
+        for (Variable v : f.vars) {
+            if (evidence.contains(v)) {
+                if (res == f) {
+                    res = new Factor(f);
+                }
+                res.restrict(v, evidence.getValueIndex(v));
+            }
+        }
+        return res;
+    }
+
     /**
      * The static version of {@link #sumout(Variable)}, which does not modify the
      * factor f.
@@ -206,6 +1031,57 @@ public class Factor {
         return new Factor(f).sumout(var);
     }
 
+    /**
+     * The static version of {@link #maxout(Variable)}, which does not modify the
+     * factor f.
+     * 
+     * @param f
+     *            The factor to max out a copy of
+     * @param var
+     *            The variable to max out
+     * 
+     * @return A new factor, the maxed out version of f.
+     */
+    public static Factor maxout(Factor f, Variable var) {
+        return new Factor(f).maxout(var);
+    }
+
+    /**
+     * The static version of {@link #toLogSpace()}, which does not modify the
+     * factor f.
+     * 
+     * @param f
+     *            The factor to copy and convert
+     * @return A new factor, the log space version of f.
+     */
+    public static Factor toLogSpace(Factor f) {
+        return new Factor(f).toLogSpace();
+    }
+
+    /**
+     * The static version of {@link #toProbabilitySpace()}, which does not modify
+     * the factor f.
+     * 
+     * @param f
+     *            The factor to copy and convert
+     * @return A new factor, the probability space version of f.
+     */
+    public static Factor toProbabilitySpace(Factor f) {
+        return new Factor(f).toProbabilitySpace();
+    }
+
+    /**
+     * The static version of {@link #toDense()}, which does not modify the factor
+     * f.
+     * 
+     * @param f
+     *            The factor to copy
+     * @return A new factor, the dense version of f.
+     */
+    public static Factor toDense(Factor f) {
+        return new Factor(f).toDense();
+    }
+
     /**
      * The static version of normalize(), which does not modify the factor f.
      * 
@@ -218,6 +1094,33 @@ public class Factor {
         return new Factor(f).normalize();
     }
 
+    /**
+     * Multiplies this factor by f, in place. The variables of f must all be
+     * variables of this factor, so that the product can be accumulated into the
+     * existing table without allocating a new one.
+     * 
+     * @param f
+     *            The factor to multiply this factor by
+     * @return This factor, which has been multiplied by f.
+     */
+    public Factor multiply(Factor f) {
+        for (Variable v : f.vars) {
+            // compares registries too, since the IDs of two registries overlap
+            if (positionOf(v) < 0) {
+                throw new IllegalArgumentException(
+                        "Cannot multiply in place by a factor with more variables");
+            }
+        }
+        checkWritable();
+        checkSameSpace(this, f);
+        if (values == null) {
+            sparseMultiplyInPlace(f);
+            return compact();
+        }
+        multiplyKernel(this, f.isSparse() ? toDense(f) : f, vars, values);
+        return this;
+    }
+
     /**
      * Multiplies the factors f1 and f2. Does not modify f1 nor f2.
      * 
@@ -228,35 +1131,95 @@ public class Factor {
      * @return The product factor of f1 and f2.
      */
     public static Factor multiply(Factor f1, Factor f2) {
+        checkSameSpace(f1, f2);
+        if (f1.isSparse() || f2.isSparse()) {
+            // iterate over the non-zero entries of the sparsest factor
+            if (f2.isSparse() && (!f1.isSparse()
+                    || f2.sparseIndices.length < f1.sparseIndices.length)) {
+                return sparseMultiply(f2, f1).compact();
+            }
+            return sparseMultiply(f1, f2).compact();
+        }
         // create a new factor with the variables of f1 and f2
-        ArrayList<Variable> commonVars = new ArrayList<>();
         ArrayList<Variable> mergedVars = new ArrayList<>();
         mergedVars.addAll(f1.vars);
         for (Variable v : f2.vars) {
-            if (f1.vars.contains(v)) {
-                commonVars.add(v);
-            } else {
+            if (!f1.contains(v)) {
                 mergedVars.add(v);
             }
         }
-        Factor productFactor = new Factor(mergedVars);
-        // fill the values of the new factor
-        for (Assignment a1 : Assignment.assignments(f1.vars)) {
-            f2Loop: for (Assignment a2 : Assignment.assignments(f2.vars)) {
-                // skip the assignments which are inconsistent
-                // (different values for the same variable)
-                for (Variable v : commonVars) {
-                    if (a1.getValue(v) != a2.getValue(v)) {
-                        continue f2Loop;
-                    }
-                }
-                // create the merged assignment
-                Assignment a = Assignment.merge(a1, a2);
-                // copy the probability for this assignment in the new factor
-                productFactor.setValue(f1.getValue(a1) * f2.getValue(a2), a);
+        double[] productValues = new double[tableSize(mergedVars)];
+        multiplyKernel(f1, f2, mergedVars, productValues);
+        return new Factor(mergedVars, productValues, f1.logSpace);
+    }
+
+    /**
+     * Adds the factors f1 and f2, on the union of their variables. Does not modify
+     * f1 nor f2. This is meant for utilities, which are never in log space.
+     * 
+     * @param f1
+     *            The first term of the sum
+     * @param f2
+     *            The second term of the sum
+     * @return The sum factor of f1 and f2.
+     */
+    public static Factor add(Factor f1, Factor f2) {
+        if (f1.logSpace || f2.logSpace) {
+            throw new IllegalArgumentException("Cannot add factors in log space");
+        }
+        return combine(f1, f2, SUM);
+    }
+
+    /**
+     * Adds the probabilities of the factors f1 and f2, on the union of their
+     * variables, such as the results of a query under exclusive conditions. In log
+     * space, the logarithms of the sums are computed without leaving the log
+     * space. Does not modify f1 nor f2.
+     * 
+     * @param f1
+     *            The first term of the sum
+     * @param f2
+     *            The second term of the sum, in the same space as f1
+     * @return The sum factor of f1 and f2.
+     */
+    public static Factor addProbabilities(Factor f1, Factor f2) {
+        checkSameSpace(f1, f2);
+        return combine(f1, f2, f1.logSpace ? LOG_SUM : SUM);
+    }
+
+    /**
+     * Divides the factor f1 by f2, on the union of their variables. The entries
+     * where f2 is 0 are 0. Does not modify f1 nor f2.
+     * 
+     * @param f1
+     *            The dividend
+     * @param f2
+     *            The divisor
+     * @return The quotient factor of f1 by f2.
+     */
+    public static Factor divide(Factor f1, Factor f2) {
+        checkSameSpace(f1, f2);
+        return combine(f1, f2, f1.logSpace ? DIFFERENCE : QUOTIENT);
+    }
+
+    /**
+     * Combines the factors f1 and f2 by the given operation into a new dense
+     * factor on the union of their variables.
+     */
+    private static Factor combine(Factor f1, Factor f2, int operation) {
+        Factor dense1 = f1.isSparse() ? toDense(f1) : f1;
+        Factor dense2 = f2.isSparse() ? toDense(f2) : f2;
+        ArrayList<Variable> mergedVars = new ArrayList<>();
+        mergedVars.addAll(f1.vars);
+        for (Variable v : f2.vars) {
+            if (!f1.contains(v)) {
+                mergedVars.add(v);
             }
         }
-        return productFactor;
+        double[] resultValues = new double[tableSize(mergedVars)];
+        combineKernel(dense1, dense2, mergedVars, resultValues, 0, resultValues.length,
+                operation);
+        return new Factor(mergedVars, resultValues, f1.logSpace);
     }
 
     /**
@@ -271,14 +1234,234 @@ public class Factor {
         if (factors == null || factors.size() == 0) {
             throw new IllegalArgumentException("Cannot compute the product of an empty list!");
         }
-        LinkedList<Factor> factorsCopy = new LinkedList<>();
-        factorsCopy.addAll(factors);
-        while (factorsCopy.size() > 1) {
-            Factor f1 = factorsCopy.removeFirst();
-            Factor f2 = factorsCopy.removeFirst();
-            factorsCopy.add(multiply(f1, f2));
+        for (Factor f : factors) {
+            if (f.isSparse()) {
+                // the product of a sparse factor is sparse, multiply them one by one
+                Factor product = null;
+                for (Factor term : factors) {
+                    product = product == null ? new Factor(term) : multiply(product, term);
+                }
+                return product;
+            }
+        }
+        // allocate the table of the whole product once
+        ArrayList<Variable> mergedVars = new ArrayList<>();
+        BitSet mergedIds = new BitSet();
+        for (Factor f : factors) {
+            for (Variable v : f.vars) {
+                if (!mergedIds.get(v.getId())) {
+                    mergedIds.set(v.getId());
+                    mergedVars.add(v);
+                }
+            }
+        }
+        boolean logSpace = factors.getFirst().logSpace;
+        double[] productValues = new double[tableSize(mergedVars)];
+        Arrays.fill(productValues, logSpace ? 0 : 1);
+        Factor product = new Factor(mergedVars, productValues, logSpace);
+        // then accumulate each term into it
+        for (Factor f : factors) {
+            product.multiply(f);
+        }
+        return product;
+    }
+
+    /**
+     * Multiplies the sparse factor s by the factor f (sparse or dense). The
+     * variables of f that are not in s come first in the product, so that
+     * enumerating the non-zero entries of s in order, and then the values of
+     * these variables, yields the entries of the product by increasing index.
+     */
+    private static Factor sparseMultiply(Factor s, Factor f) {
+        ArrayList<Variable> productVars = new ArrayList<>();
+        ArrayList<Integer> extraPositions = new ArrayList<>();
+        for (int i = 0; i < f.vars.size(); i++) {
+            if (!s.contains(f.vars.get(i))) {
+                productVars.add(f.vars.get(i));
+                extraPositions.add(i);
+            }
+        }
+        int extraSize = tableSize(productVars);
+        productVars.addAll(s.vars);
+        tableSize(productVars);
+        // offset in the table of f of each assignment of the extra variables
+        int[] extraOffsets = new int[extraSize];
+        for (int e = 0; e < extraOffsets.length; e++) {
+            int remaining = e;
+            for (int position : extraPositions) {
+                int cardinality = f.vars.get(position).getCardinality();
+                extraOffsets[e] += remaining % cardinality * f.strides[position];
+                remaining /= cardinality;
+            }
+        }
+        int[] strides = stridesIn(s.vars, f);
+        double zero = s.zero();
+        int capacity = Math.max(1, s.sparseIndices.length);
+        int[] productIndices = new int[capacity];
+        double[] productValues = new double[capacity];
+        int count = 0;
+        for (int k = 0; k < s.sparseIndices.length; k++) {
+            int index = s.sparseIndices[k];
+            int base = indexIn(s.vars, index, strides);
+            for (int e = 0; e < extraOffsets.length; e++) {
+                double value = f.valueAt(base + extraOffsets[e]);
+                value = s.logSpace ? value + s.sparseValues[k] : value * s.sparseValues[k];
+                if (value != zero) {
+                    if (count == capacity) {
+                        capacity *= 2;
+                        productIndices = Arrays.copyOf(productIndices, capacity);
+                        productValues = Arrays.copyOf(productValues, capacity);
+                    }
+                    productIndices[count] = index * extraSize + e;
+                    productValues[count++] = value;
+                }
+            }
+        }
+        Factor product = new Factor(productVars, (double[]) null, s.logSpace);
+        product.sparseIndices = Arrays.copyOf(productIndices, count);
+        product.sparseValues = Arrays.copyOf(productValues, count);
+        return product;
+    }
+
+    /**
+     * Multiplies this sparse factor by f, whose variables are all variables of
+     * this factor. Only the non-zero entries of this factor can remain non-zero.
+     */
+    private void sparseMultiplyInPlace(Factor f) {
+        int[] stridesInF = stridesIn(vars, f);
+        double zero = zero();
+        int count = 0;
+        for (int k = 0; k < sparseIndices.length; k++) {
+            int index = sparseIndices[k];
+            double value = f.valueAt(indexIn(vars, index, stridesInF));
+            value = logSpace ? value + sparseValues[k] : value * sparseValues[k];
+            if (value != zero) {
+                sparseIndices[count] = index;
+                sparseValues[count++] = value;
+            }
+        }
+        sparseIndices = Arrays.copyOf(sparseIndices, count);
+        sparseValues = Arrays.copyOf(sparseValues, count);
+    }
+
+    /**
+     * Returns the stride in the table of f of each of the given variables, 0 for
+     * the variables that are not in f.
+     */
+    private static int[] stridesIn(ArrayList<Variable> variables, Factor f) {
+        int[] stridesInF = new int[variables.size()];
+        for (int i = 0; i < stridesInF.length; i++) {
+            int position = f.positionOf(variables.get(i));
+            stridesInF[i] = position < 0 ? 0 : f.strides[position];
+        }
+        return stridesInF;
+    }
+
+    /**
+     * Converts the index of an assignment of the given variables into the index of
+     * the same assignment in a table where they have the given strides.
+     */
+    private static int indexIn(ArrayList<Variable> variables, int index, int[] stridesInTable) {
+        int result = 0;
+        for (int i = 0; index != 0; i++) {
+            int cardinality = variables.get(i).getCardinality();
+            result += index % cardinality * stridesInTable[i];
+            index /= cardinality;
+        }
+        return result;
+    }
+
+    /**
+     * Writes the product of f1 and f2 into result, a table on resultVars. The
+     * variables of f1 and f2 must be variables of resultVars. The variables of
+     * resultVars are enumerated once, like an odometer, while the indices in the
+     * tables of f1 and f2 are incremented accordingly, so that no object is
+     * allocated per entry. The result may be the table of f1 or f2 itself. In log
+     * space, the values are added instead of multiplied.
+     */
+    private static void multiplyKernel(Factor f1, Factor f2, ArrayList<Variable> resultVars,
+            double[] result) {
+        multiplyKernel(f1, f2, resultVars, result, 0, result.length);
+    }
+
+    /**
+     * Writes the entries [from, to) of the product of f1 and f2 into result, a
+     * table on resultVars, like {@link #multiplyKernel(Factor, Factor, ArrayList, double[])}.
+     * Disjoint ranges can be computed concurrently.
+     */
+    static void multiplyKernel(Factor f1, Factor f2, ArrayList<Variable> resultVars,
+            double[] result, int from, int to) {
+        combineKernel(f1, f2, resultVars, result, from, to, f1.logSpace ? SUM : PRODUCT);
+    }
+
+    /**
+     * Writes the entries [from, to) of the combination of f1 and f2 by the given
+     * operation into result, a table on resultVars, enumerating the entries like
+     * {@link #multiplyKernel(Factor, Factor, ArrayList, double[])}. The operation
+     * applies to the stored values, whatever the space of the factors. A quotient
+     * by 0 (or a difference with -infinity) is 0 (or -infinity).
+     */
+    private static void combineKernel(Factor f1, Factor f2, ArrayList<Variable> resultVars,
+            double[] result, int from, int to, int operation) {
+        // strides of each result variable in the tables of f1 and f2 (0 if absent)
+        int n = resultVars.size();
+        int[] strides1 = stridesIn(resultVars, f1);
+        int[] strides2 = stridesIn(resultVars, f2);
+        int[] maxValues = new int[n];
+        // start from the assignment corresponding to the index from
+        int[] assignment = new int[n];
+        int index1 = 0;
+        int index2 = 0;
+        int remaining = from;
+        for (int i = 0; i < n; i++) {
+            int cardinality = resultVars.get(i).getCardinality();
+            maxValues[i] = cardinality - 1;
+            assignment[i] = remaining % cardinality;
+            remaining /= cardinality;
+            index1 += assignment[i] * strides1[i];
+            index2 += assignment[i] * strides2[i];
+        }
+        // the dense tables, or else the buffers of the mapped factors
+        double[] values1 = f1.values;
+        double[] values2 = f2.values;
+        DoubleBuffer mapped1 = f1.mapped;
+        DoubleBuffer mapped2 = f2.mapped;
+        for (int index = from; index < to; index++) {
+            double value1 = values1 != null ? values1[index1] : mapped1.get(index1);
+            double value2 = values2 != null ? values2[index2] : mapped2.get(index2);
+            switch (operation) {
+            case PRODUCT:
+                result[index] = value1 * value2;
+                break;
+            case SUM:
+                result[index] = value1 + value2;
+                break;
+            case QUOTIENT:
+                result[index] = value2 == 0 ? 0 : value1 / value2;
+                break;
+            case LOG_SUM:
+                double max = Math.max(value1, value2);
+                result[index] = max == Double.NEGATIVE_INFINITY ? max
+                        : max + Math.log1p(Math.exp(Math.min(value1, value2) - max));
+                break;
+            default:
+                result[index] = value2 == Double.NEGATIVE_INFINITY ? value2 : value1 - value2;
+                break;
+            }
+            // increment the assignment, and the indices in f1 and f2 with it
+            for (int i = 0; i < n; i++) {
+                if (assignment[i] == maxValues[i]) {
+                    assignment[i] = 0;
+                    index1 -= maxValues[i] * strides1[i];
+                    index2 -= maxValues[i] * strides2[i];
+                } else {
+                    assignment[i]++;
+                    index1 += strides1[i];
+                    index2 += strides2[i];
+                    break;
+                }
+            }
         }
-        return factorsCopy.getFirst();
     }
 
     /**
@@ -302,52 +1485,125 @@ public class Factor {
     public static Factor inference(LinkedList<Factor> factors, LinkedList<Variable> queryVariables,
             LinkedList<Variable> orderedHiddenVariables, LinkedList<Variable> evidence,
             boolean normalize) {
+        return inference(factors, queryVariables, orderedHiddenVariables, evidence, normalize,
+                QueryTrace.NONE);
+    }
+
+    /**
+     * Executes the variable elimination algorithm, reporting its steps to the given
+     * trace.
+     * 
+     * @param factors
+     *            The list of all factors to consider. When the method returns, it
+     *            holds the factors whose product is the result.
+     * @param queryVariables
+     *            The variables we want to see in the resulting factor
+     * @param orderedHiddenVariables
+     *            A list of the other variables, in the order of their elimination.
+     *            This list may contain some variables contained in queryVariables
+     *            and evidence, but these variables will be ignored.
+     * @param evidence
+     *            A list of variables which have been set to a value as evidence.
+     * @param normalize
+     *            If {@code true}, the result is normalized.
+     * @param trace
+     *            The trace receiving the restrictions, products and elimination
+     *            steps, {@link QueryTrace#NONE} to ignore them
+     * @return The resulting normalized factor computed by the variable elimination
+     *         algorithm.
+     */
+    public static Factor inference(LinkedList<Factor> factors, LinkedList<Variable> queryVariables,
+            LinkedList<Variable> orderedHiddenVariables, LinkedList<Variable> evidence,
+            boolean normalize, QueryTrace trace) {
+        boolean traced = trace.isEnabled();
+        long start = traced ? System.nanoTime() : 0;
         // restrict all factors according to the evidence list
-        System.out.println("Restrictions:");
         for (Variable v : evidence) {
             for (Factor f : factors) {
                 if (f.contains(v)) {
-                    System.out.print(f + "|" + v + "=" + v.toStringWithValue() + " -> ");
-                    f.restrict(v, v.getValue());
-                    System.out.println(f);
+                    f.restrict(v, v.getValueIndex());
+                    if (traced) {
+                        trace.restricted(f, v, v.getValueIndex());
+                    }
                 }
             }
         }
         // sum out the variables in the order given by hiddenVariables
+        BitSet skippedIds = new BitSet();
+        for (Variable v : queryVariables) {
+            skippedIds.set(v.getId());
+        }
+        for (Variable v : evidence) {
+            skippedIds.set(v.getId());
+        }
+        FactorBuckets<Factor> buckets = FactorBuckets.of(factors);
         LinkedList<Factor> affectedFactors = new LinkedList<>();
-        System.out.println("\nVariables summation:");
         for (Variable v : orderedHiddenVariables) {
             // skip query variables and evidence variables
-            if (queryVariables.contains(v) || evidence.contains(v)) {
+            if (skippedIds.get(v.getId())) {
                 continue;
             }
-            // find the factors containing the variable v
+            // take the factors containing the variable v
             affectedFactors.clear();
-            for (Factor f : factors) {
-                if (f.contains(v)) {
-                    affectedFactors.add(f);
-                }
-            }
+            buckets.take(v, affectedFactors);
             if (affectedFactors.isEmpty()) {
                 continue;
             }
-            factors.removeAll(affectedFactors);
+            long stepStart = traced ? System.nanoTime() : 0;
             // compute the product of all the factors containing v
             Factor product = multiply(affectedFactors);
+            if (traced) {
+                trace.multiplied(affectedFactors, product);
+            }
             // sum out the variable v in the product
             product = sumout(product, v);
-            printNewComputedFactor(product, v, affectedFactors);
-            factors.add(product);
+            if (traced) {
+                trace.eliminated(v, affectedFactors, product, System.nanoTime() - stepStart);
+            }
+            buckets.add(product, product.getVariableIds());
         }
+        factors.clear();
+        factors.addAll(buckets.getFactors());
         // compute the product of all remaining factors
         Factor resultingFactor = multiply(factors);
+        if (traced) {
+            trace.multiplied(factors, resultingFactor);
+        }
         // normalization
         if (normalize) {
             resultingFactor.normalize();
         }
+        if (traced) {
+            trace.finished(resultingFactor, System.nanoTime() - start);
+        }
         return resultingFactor;
     }
 
+    /**
+     * Executes the variable elimination algorithm, eliminating the hidden variables
+     * in an order chosen by the given heuristic.
+     * 
+     * @param factors
+     *            The list of all factors to consider
+     * @param queryVariables
+     *            The variables we want to see in the resulting factor
+     * @param evidence
+     *            A list of variables which have been set to a value as evidence.
+     * @param heuristic
+     *            The strategy used to compute the elimination order
+     * @param normalize
+     *            If {@code true}, the result is normalized.
+     * @return The resulting factor computed by the variable elimination algorithm.
+     * @see EliminationPlan#compute(LinkedList, LinkedList, LinkedList,
+     *      EliminationHeuristic)
+     */
+    public static Factor inference(LinkedList<Factor> factors, LinkedList<Variable> queryVariables,
+            LinkedList<Variable> evidence, EliminationHeuristic heuristic, boolean normalize) {
+        EliminationPlan plan = EliminationPlan.compute(factors, queryVariables, evidence,
+                heuristic);
+        return inference(factors, queryVariables, plan.getOrder(), evidence, normalize);
+    }
+
     /**
      * Debug method which displays a list of factors with a title.
      * 
@@ -373,18 +1629,6 @@ public class Factor {
         System.out.println();
     }
 
-    /**
-     * Fancy printing for a summation of a product of factors.
-     */
-    private static void printNewComputedFactor(Factor newFactor, Variable summedOutVar,
-            LinkedList<Factor> termsOfProduct) {
-        System.out.print(newFactor + " = Sum[" + summedOutVar + "] ");
-        for (Factor f : termsOfProduct) {
-            System.out.print(f);
-        }
-        System.out.println();
-    }
-
     /**
      * Returns a string representing this factor with all its values.
      * 
@@ -392,9 +1636,10 @@ public class Factor {
      */
     public String toFullString() {
         String res = "";
-        for (int i = 0; i < values.length; i++) {
-            res += "f(" + new Assignment(vars, i).toString(true) + ") = " + values[i];
-            if (i < values.length - 1) {
+        Scope scope = new Scope(vars);
+        for (int i = 0; i < size; i++) {
+            res += "f(" + new Assignment(scope, i).toString(true) + ") = " + valueAt(i);
+            if (i < size - 1) {
                 res += "\n";
             }
         }
@@ -0,0 +1,116 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The factors of a variable elimination, indexed by the IDs of their variables.
+ * Taking the factors containing a variable only visits the bucket of this
+ * variable: the factors taken are marked as removed instead of being searched in
+ * the buckets of their other variables, which skip them when they are taken in
+ * turn. The bookkeeping of an elimination step is thus proportional to the factors
+ * it touches, not to the number of factors.
+ * <p>
+ * The factors keep the order in which they were added, so that the products are
+ * computed with their terms in the same order as by a scan of the list.
+ * 
+ * @param <F>
+ *            The type of the factors, such as {@link Factor}, {@link WideFactor}
+ *            or the nodes of an elimination tree
+ */
+public final class FactorBuckets<F> {
+
+    private static final class Entry<F> {
+        private final F factor;
+        private boolean removed;
+
+        private Entry(F factor) {
+            this.factor = factor;
+        }
+    }
+
+    // all the entries, in the order of their addition
+    private final ArrayList<Entry<F>> entries = new ArrayList<>();
+    // the entries containing each variable, indexed by its ID, null if none
+    private final ArrayList<ArrayList<Entry<F>>> buckets = new ArrayList<>();
+
+    /**
+     * Creates an index of the given factors.
+     * 
+     * @param factors
+     *            The factors, which are not modified
+     * @return A new index of the factors.
+     */
+    static FactorBuckets<Factor> of(Collection<Factor> factors) {
+        FactorBuckets<Factor> buckets = new FactorBuckets<>();
+        for (Factor f : factors) {
+            buckets.add(f, f.getVariableIds());
+        }
+        return buckets;
+    }
+
+    /**
+     * Adds a factor after the others.
+     * 
+     * @param f
+     *            The factor to add, such as the result of an elimination step
+     * @param ids
+     *            The IDs of the variables of the factor
+     */
+    public void add(F f, int[] ids) {
+        Entry<F> entry = new Entry<>(f);
+        entries.add(entry);
+        for (int id : ids) {
+            while (buckets.size() <= id) {
+                buckets.add(null);
+            }
+            ArrayList<Entry<F>> bucket = buckets.get(id);
+            if (bucket == null) {
+                bucket = new ArrayList<>();
+                buckets.set(id, bucket);
+            }
+            bucket.add(entry);
+        }
+    }
+
+    /**
+     * Removes the factors containing the given variable, and appends them to the
+     * given list in the order of their addition.
+     * 
+     * @param v
+     *            The variable to eliminate
+     * @param taken
+     *            The list receiving the factors containing v
+     */
+    public void take(Variable v, List<? super F> taken) {
+        int id = v.getId();
+        if (id >= buckets.size() || buckets.get(id) == null) {
+            return;
+        }
+        for (Entry<F> entry : buckets.get(id)) {
+            if (!entry.removed) {
+                entry.removed = true;
+                taken.add(entry.factor);
+            }
+        }
+        buckets.set(id, null);
+    }
+
+    /**
+     * Returns the factors which have not been taken, in the order of their
+     * addition.
+     * 
+     * @return A new list of the remaining factors.
+     */
+    public LinkedList<F> getFactors() {
+        LinkedList<F> factors = new LinkedList<>();
+        for (Entry<F> entry : entries) {
+            if (!entry.removed) {
+                factors.add(entry.factor);
+            }
+        }
+        return factors;
+    }
+}
@@ -0,0 +1,126 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * The jointly most likely assignment of the hidden variables given the evidence,
+ * computed by max-product variable elimination: the hidden variables are maxed
+ * out instead of summed out, in the same order and with the same factor sizes as
+ * a marginal query. Each max out records the maximizing value of the eliminated
+ * variable for every assignment of the remaining ones, and these backpointers are
+ * followed in the reverse order of the eliminations to recover the assignment.
+ */
+public class MostProbableExplanation {
+
+    private final Assignment assignment;
+    private final double value;
+    private final boolean logSpace;
+
+    private MostProbableExplanation(Assignment assignment, double value, boolean logSpace) {
+        this.assignment = assignment;
+        this.value = value;
+        this.logSpace = logSpace;
+    }
+
+    /**
+     * Returns the most probable values of the hidden variables.
+     * 
+     * @return The maximizing assignment of the variables eliminated.
+     */
+    public Assignment getAssignment() {
+        return assignment;
+    }
+
+    /**
+     * Returns the joint probability of the evidence and the most probable
+     * assignment, which is the product of the factors for this assignment.
+     * 
+     * @return the probability, even if the factors are in log space
+     */
+    public double getProbability() {
+        return logSpace ? Math.exp(value) : value;
+    }
+
+    /**
+     * Returns the natural logarithm of {@link #getProbability()}, which does not
+     * underflow when the factors are in log space.
+     * 
+     * @return the logarithm of the probability
+     */
+    public double getLogProbability() {
+        return logSpace ? value : Math.log(value);
+    }
+
+    /**
+     * Executes the max-product variable elimination algorithm.
+     * 
+     * @param factors
+     *            The list of all factors to consider, already restricted to the
+     *            evidence. The list and its factors are not modified.
+     * @param orderedHiddenVariables
+     *            The variables to maximize over, in the order of their elimination,
+     *            such as the order of an {@link EliminationPlan} without query
+     *            variables. They must be all the variables of the factors.
+     * @return The most probable assignment of the hidden variables.
+     */
+    public static MostProbableExplanation compute(LinkedList<Factor> factors,
+            LinkedList<Variable> orderedHiddenVariables) {
+        FactorBuckets<Factor> buckets = FactorBuckets.of(factors);
+        boolean logSpace = !factors.isEmpty() && factors.getFirst().isLogSpace();
+        ArrayList<ArrayList<Variable>> pointerScopes = new ArrayList<>();
+        ArrayList<int[]> pointers = new ArrayList<>();
+        LinkedList<Factor> affectedFactors = new LinkedList<>();
+        for (Variable v : orderedHiddenVariables) {
+            affectedFactors.clear();
+            buckets.take(v, affectedFactors);
+            if (affectedFactors.isEmpty()) {
+                // no factor depends on v, any value is a maximum
+                pointerScopes.add(new ArrayList<Variable>());
+                pointers.add(new int[1]);
+                continue;
+            }
+            // the product is a new factor, so it can be maxed out in place
+            Factor product = Factor.multiply(affectedFactors);
+            int[] argmax = new int[product.getSize() / v.getCardinality()];
+            product.maxout(v, argmax);
+            pointerScopes.add(product.getVariables());
+            pointers.add(argmax);
+            buckets.add(product, product.getVariableIds());
+        }
+        LinkedList<Factor> remaining = buckets.getFactors();
+        for (Factor f : remaining) {
+            if (!f.getVariables().isEmpty()) {
+                throw new IllegalArgumentException("The variables of " + f
+                        + " are not all in the elimination order");
+            }
+        }
+        double value = remaining.isEmpty() ? (logSpace ? 0 : 1)
+                : Factor.multiply(remaining).getValues()[0];
+        // follow the backpointers from the last variable eliminated
+        HashMap<Variable, Integer> values = new HashMap<>();
+        ArrayList<Variable> hidden = new ArrayList<>(orderedHiddenVariables);
+        for (int k = hidden.size() - 1; k >= 0; k--) {
+            ArrayList<Variable> scope = pointerScopes.get(k);
+            int index = 0;
+            int stride = 1;
+            for (Variable v : scope) {
+                index += values.get(v) * stride;
+                stride *= v.getCardinality();
+            }
+            values.put(hidden.get(k), pointers.get(k)[index]);
+        }
+        int[] assignment = new int[hidden.size()];
+        for (int k = 0; k < assignment.length; k++) {
+            assignment[k] = values.get(hidden.get(k));
+        }
+        return new MostProbableExplanation(Assignment.ofValues(hidden, assignment), value,
+                logSpace);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + assignment + "] with probability " + getProbability();
+    }
+}
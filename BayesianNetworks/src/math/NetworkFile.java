@@ -0,0 +1,296 @@
+package math;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact binary format for {@link BayesianNetwork}s, whose dense tables are
+ * used directly from a memory-mapped file: loading a network only reads its
+ * variables and scopes, and the pages of the tables are read on demand and shared
+ * by all the processes mapping the same file.
+ * <p>
+ * The file is little-endian. It starts with the magic number and the version of
+ * the format, followed by the variables: the number of variables, then for each
+ * of them its name, its cardinality, and the names of its values (none for a
+ * boolean variable). Then come the factors: the number of factors, then for each
+ * of them its flags (log space, sparse), the number of its variables and their
+ * indices in the list of variables, and its table. A dense table is made of all
+ * its doubles, aligned on 8 bytes. A sparse table is made of the number of
+ * non-zero entries, their indices, and their values aligned on 8 bytes. Strings
+ * are written as their number of bytes in UTF-8 followed by these bytes.
+ */
+public final class NetworkFile {
+
+    private static final int MAGIC = 0x54454E42; // "BNET" in little-endian
+    private static final int VERSION = 1;
+
+    // flags of a factor
+    private static final int LOG_SPACE = 1;
+    private static final int SPARSE = 2;
+
+    // size of the buffer used to write a file
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private NetworkFile() {
+        // static methods only
+    }
+
+    /**
+     * Writes the network to the given file, replacing it if it exists.
+     * 
+     * @param network
+     *            The network to write
+     * @param path
+     *            The file to write
+     * @throws IOException
+     *             If the file cannot be written.
+     */
+    public static void write(BayesianNetwork network, Path path) throws IOException {
+        List<Variable> variables = network.getVariables();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Writer out = new Writer(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(variables.size());
+            for (Variable v : variables) {
+                out.putString(v.getName());
+                out.putInt(v.getCardinality());
+                String[] valueNames = v.getValueNames();
+                out.putInt(valueNames == null ? 0 : valueNames.length);
+                if (valueNames != null) {
+                    for (String valueName : valueNames) {
+                        out.putString(valueName);
+                    }
+                }
+            }
+            out.putInt(network.getFactors().size());
+            for (Factor f : network.getFactors()) {
+                ArrayList<Variable> vars = f.getVariables();
+                out.putInt((f.isLogSpace() ? LOG_SPACE : 0) | (f.isSparse() ? SPARSE : 0));
+                out.putInt(vars.size());
+                for (Variable v : vars) {
+                    out.putInt(variables.indexOf(v));
+                }
+                if (f.isSparse()) {
+                    Factor dense = Factor.toDense(f);
+                    double zero = f.isLogSpace() ? Double.NEGATIVE_INFINITY : 0;
+                    double[] table = dense.table();
+                    int count = 0;
+                    for (double value : table) {
+                        if (value != zero) {
+                            count++;
+                        }
+                    }
+                    out.putInt(count);
+                    for (int i = 0; i < table.length; i++) {
+                        if (table[i] != zero) {
+                            out.putInt(i);
+                        }
+                    }
+                    out.align();
+                    for (double value : table) {
+                        if (value != zero) {
+                            out.putDouble(value);
+                        }
+                    }
+                } else {
+                    out.align();
+                    for (double value : f.getValues()) {
+                        out.putDouble(value);
+                    }
+                }
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Loads a network written by {@link #write(BayesianNetwork, Path)}, mapping the
+     * file in memory. The dense tables of the factors of the network are read from
+     * the mapped file without being copied, and these factors are read-only. The
+     * sparse tables, which are small, are copied.
+     * 
+     * @param path
+     *            The file to load
+     * @return A new network whose dense factors are mapped.
+     * @throws IOException
+     *             If the file cannot be read, or is not a valid network file.
+     */
+    public static BayesianNetwork map(Path path) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The network file " + path + " is larger than 2 GB");
+            }
+            // the mapping remains valid after the channel is closed
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("The file " + path + " is not a network file");
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of the network file "
+                        + path);
+            }
+            // the variables of each file are interned in a registry of their own
+            VariableRegistry registry = new VariableRegistry();
+            Variable[] variables = new Variable[readCount(in)];
+            for (int i = 0; i < variables.length; i++) {
+                variables[i] = readVariable(in, registry);
+            }
+            int factorCount = readCount(in);
+            ArrayList<Factor> factors = new ArrayList<>(factorCount);
+            for (int k = 0; k < factorCount; k++) {
+                factors.add(readFactor(in, variables));
+            }
+            return BayesianNetwork.wrap(factors);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("The network file " + path + " is truncated", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("The network file " + path + " is invalid: " + e.getMessage(),
+                    e);
+        }
+    }
+
+    private static Variable readVariable(ByteBuffer in, VariableRegistry registry) {
+        String name = readString(in);
+        int cardinality = in.getInt();
+        String[] valueNames = new String[readCount(in)];
+        for (int j = 0; j < valueNames.length; j++) {
+            valueNames[j] = readString(in);
+        }
+        if (valueNames.length == 0) {
+            return cardinality == 2 ? registry.variable(name) : registry.variable(name,
+                    cardinality);
+        }
+        if (valueNames.length != cardinality) {
+            throw new IllegalArgumentException("the variable " + name + " has " + cardinality
+                    + " values but " + valueNames.length + " value names");
+        }
+        return registry.variable(name, valueNames);
+    }
+
+    private static Factor readFactor(ByteBuffer in, Variable[] variables) {
+        int flags = in.getInt();
+        boolean logSpace = (flags & LOG_SPACE) != 0;
+        ArrayList<Variable> vars = new ArrayList<>();
+        int variableCount = readCount(in);
+        for (int i = 0; i < variableCount; i++) {
+            int index = in.getInt();
+            if (index < 0 || index >= variables.length) {
+                throw new IllegalArgumentException("no variable has the index " + index);
+            }
+            vars.add(variables[index]);
+        }
+        if ((flags & SPARSE) != 0) {
+            int[] indices = new int[readCount(in)];
+            in.asIntBuffer().get(indices);
+            in.position(in.position() + 4 * indices.length);
+            align(in);
+            double[] values = new double[indices.length];
+            in.asDoubleBuffer().get(values);
+            in.position(in.position() + 8 * values.length);
+            return Factor.sparse(vars, indices, values, logSpace);
+        }
+        align(in);
+        int size = Factor.tableSize(vars);
+        ByteBuffer table = in.slice();
+        table.limit(8 * size);
+        in.position(in.position() + 8 * size);
+        DoubleBuffer mapped = table.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        return new Factor(vars, mapped, logSpace);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readCount(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readCount(ByteBuffer in) {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining()) {
+            throw new IllegalArgumentException("invalid count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Skips the padding up to the next multiple of 8 bytes.
+     */
+    private static void align(ByteBuffer in) {
+        in.position((in.position() + 7) & ~7);
+    }
+
+    /**
+     * Writes little-endian values to a channel through a buffer, keeping track of
+     * the position in the file to align the tables.
+     */
+    private static final class Writer {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long position;
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+            position += 4;
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+            position += 8;
+        }
+
+        void putString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for (byte b : bytes) {
+                ensure(1);
+                buffer.put(b);
+                position++;
+            }
+        }
+
+        void align() throws IOException {
+            while ((position & 7) != 0) {
+                ensure(1);
+                buffer.put((byte) 0);
+                position++;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
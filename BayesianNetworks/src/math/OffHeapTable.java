@@ -0,0 +1,140 @@
+package math;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * A table of doubles indexed by longs, stored outside of the heap in direct
+ * buffers of at most 2^24 values each. The table is not subject to the limit of
+ * the length of arrays, and its values are never copied nor scanned by the garbage
+ * collector. Its memory is released by {@link #free()}, or when the table is
+ * collected if the JVM does not allow to release direct buffers explicitly. The
+ * total size of the direct buffers is limited by the option
+ * {@code -XX:MaxDirectMemorySize} of the JVM, which defaults to the maximum size of
+ * the heap.
+ */
+final class OffHeapTable {
+
+    // 2^24 values, 128 MB, per buffer
+    private static final int DEFAULT_CHUNK_SHIFT = 24;
+
+    // the method of sun.misc.Unsafe releasing a direct buffer, null if unavailable
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // before Java 9, the buffers are released through their cleaner
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final ByteBuffer[] buffers;
+    // views of the buffers, null once released
+    private final DoubleBuffer[] chunks;
+    private final int chunkShift;
+    private final long chunkMask;
+    private final long size;
+
+    /**
+     * Allocates a table of the given number of zeros.
+     * 
+     * @param size
+     *            The number of entries of the table
+     */
+    OffHeapTable(long size) {
+        this(size, DEFAULT_CHUNK_SHIFT);
+    }
+
+    /**
+     * Allocates a table of the given number of zeros, in buffers of
+     * {@code 2^chunkShift} values.
+     */
+    OffHeapTable(long size, int chunkShift) {
+        if (size < 0) {
+            throw new IllegalArgumentException("the size of a table cannot be negative");
+        }
+        this.size = size;
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1L << chunkShift) - 1;
+        long chunkCount = (size + chunkMask) >>> chunkShift;
+        if (chunkCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("the table of " + size + " entries is too large");
+        }
+        buffers = new ByteBuffer[(int) chunkCount];
+        chunks = new DoubleBuffer[(int) chunkCount];
+        try {
+            for (int c = 0; c < chunks.length; c++) {
+                int length = (int) Math.min(1L << chunkShift, size - ((long) c << chunkShift));
+                buffers[c] = ByteBuffer.allocateDirect(length * 8);
+                chunks[c] = buffers[c].order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            }
+        } catch (OutOfMemoryError e) {
+            // the buffers already allocated would only be released by a collection
+            free();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the memory of this table immediately. The table cannot be read nor
+     * written anymore. Releasing a table twice has no effect.
+     */
+    void free() {
+        for (int c = 0; c < buffers.length; c++) {
+            ByteBuffer buffer = buffers[c];
+            buffers[c] = null;
+            chunks[c] = null;
+            if (buffer != null) {
+                release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Releases the memory of a direct buffer, or leaves it to the garbage
+     * collector if the JVM does not allow it.
+     */
+    private static void release(ByteBuffer buffer) {
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // released when the buffer is collected
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    double get(long index) {
+        return chunks[(int) (index >>> chunkShift)].get((int) (index & chunkMask));
+    }
+
+    void set(long index, double value) {
+        chunks[(int) (index >>> chunkShift)].put((int) (index & chunkMask), value);
+    }
+}
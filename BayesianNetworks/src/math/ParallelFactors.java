@@ -0,0 +1,193 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Versions of the operations of {@link Factor} that split the table of the result
+ * into ranges of indices computed concurrently on a {@link ForkJoinPool}. Factors
+ * smaller than the chunk size are computed in the calling thread.
+ */
+public final class ParallelFactors {
+
+    private ParallelFactors() {
+        // static methods only
+    }
+
+    /**
+     * Multiplies the factors f1 and f2. Does not modify f1 nor f2.
+     * 
+     * @param f1
+     *            The first term of the product
+     * @param f2
+     *            The second term of the product
+     * @param pool
+     *            The pool running the chunks, unless the calling thread is already
+     *            running in a pool
+     * @param chunkSize
+     *            The number of entries of the result computed by a single task
+     * @return The product factor of f1 and f2.
+     */
+    public static Factor multiply(Factor f1, Factor f2, ForkJoinPool pool, int chunkSize) {
+        LinkedList<Factor> factors = new LinkedList<>();
+        factors.add(f1);
+        factors.add(f2);
+        return multiply(factors, pool, chunkSize);
+    }
+
+    /**
+     * Computes the product of all the factors. Does not modify them, neither the
+     * list.
+     * 
+     * @param factors
+     *            The terms of the product
+     * @param pool
+     *            The pool running the chunks, unless the calling thread is already
+     *            running in a pool
+     * @param chunkSize
+     *            The number of entries of the result computed by a single task
+     * @return The product of the factors.
+     */
+    public static Factor multiply(LinkedList<Factor> factors, ForkJoinPool pool, int chunkSize) {
+        if (factors == null || factors.size() == 0) {
+            throw new IllegalArgumentException("Cannot compute the product of an empty list!");
+        }
+        for (Factor f : factors) {
+            if (f.isSparse()) {
+                // the cost depends on the non-zero entries, not on the size of the table
+                return Factor.multiply(factors);
+            }
+        }
+        final ArrayList<Variable> mergedVars = new ArrayList<>();
+        BitSet mergedIds = new BitSet();
+        for (Factor f : factors) {
+            for (Variable v : f.getVariables()) {
+                if (!mergedIds.get(v.getId())) {
+                    mergedIds.set(v.getId());
+                    mergedVars.add(v);
+                }
+            }
+        }
+        boolean logSpace = factors.getFirst().isLogSpace();
+        final double[] productValues = new double[Factor.tableSize(mergedVars)];
+        Arrays.fill(productValues, logSpace ? 0 : 1);
+        final Factor product = new Factor(mergedVars, productValues, logSpace);
+        for (final Factor f : factors) {
+            Factor.checkSameSpace(product, f);
+            run(pool, new ChunkedAction(0, productValues.length, chunkSize) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                void computeRange(int from, int to) {
+                    Factor.multiplyKernel(product, f, mergedVars, productValues, from, to);
+                }
+            });
+        }
+        return product;
+    }
+
+    /**
+     * The static version of {@link Factor#sumout(Variable)}, which does not modify
+     * the factor f.
+     * 
+     * @param f
+     *            The factor to sumout a copy of
+     * @param v
+     *            The variable to sum out
+     * @param pool
+     *            The pool running the chunks, unless the calling thread is already
+     *            running in a pool
+     * @param chunkSize
+     *            The number of entries of the result computed by a single task
+     * @return A new factor, the summed out version of f.
+     */
+    public static Factor sumout(Factor f, Variable v, ForkJoinPool pool, int chunkSize) {
+        if (f.table() == null) {
+            // sparse or mapped, computed on a copy
+            return Factor.sumout(f, v);
+        }
+        ArrayList<Variable> vars = f.getVariables();
+        int position = vars.indexOf(v);
+        if (position < 0) {
+            throw new IllegalArgumentException("This factor does not contain the variable " + v);
+        }
+        final int stride = f.stride(position);
+        final int cardinality = v.getCardinality();
+        final double[] values = f.table();
+        final boolean logSpace = f.isLogSpace();
+        final double[] newValues = new double[values.length / cardinality];
+        run(pool, new ChunkedAction(0, newValues.length, chunkSize) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            void computeRange(int from, int to) {
+                Factor.sumoutKernel(values, stride, cardinality, newValues, from, to,
+                        logSpace);
+            }
+        });
+        vars.remove(position);
+        return new Factor(vars, newValues, logSpace);
+    }
+
+    /**
+     * Runs the task in the current pool if the calling thread is part of one, or in
+     * the given pool otherwise.
+     */
+    private static void run(ForkJoinPool pool, ForkJoinTask<?> task) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    /**
+     * Computes a range of indices, splitting it in two halves computed concurrently
+     * as long as it is larger than the chunk size.
+     */
+    private static abstract class ChunkedAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        ChunkedAction(int from, int to, int chunkSize) {
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        abstract void computeRange(int from, int to);
+
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                computeRange(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            final ChunkedAction parent = this;
+            invokeAll(new ChunkedAction(from, middle, chunkSize) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                void computeRange(int from, int to) {
+                    parent.computeRange(from, to);
+                }
+            }, new ChunkedAction(middle, to, chunkSize) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                void computeRange(int from, int to) {
+                    parent.computeRange(from, to);
+                }
+            });
+        }
+    }
+}
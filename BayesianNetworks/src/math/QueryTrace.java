@@ -0,0 +1,129 @@
+package math;
+
+import java.util.List;
+
+/**
+ * Receives the steps of a single inference query, as they are computed. The
+ * implementations are given by an instrumentation of the engine: they can time the
+ * steps, record the sizes of the intermediate factors, or print them.
+ * <p>
+ * A trace that is not enabled receives no calls, and the clock is not read for
+ * it, so that the default {@link #NONE} trace costs nothing. A trace may receive
+ * the steps of a query from several threads when the query is computed in
+ * parallel. The factors and lists given to the trace must not be modified nor
+ * kept.
+ */
+public interface QueryTrace {
+
+    /**
+     * The trace which ignores everything, and is not enabled.
+     */
+    QueryTrace NONE = new QueryTrace() {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void restricted(Factor factor, Variable v, int value) {
+            // ignored
+        }
+
+        @Override
+        public void multiplied(List<Factor> terms, Factor product) {
+            // ignored
+        }
+
+        @Override
+        public void eliminated(Variable v, List<Factor> terms, Factor result, long nanos) {
+            // ignored
+        }
+
+        @Override
+        public void eliminatedWide(Variable v, List<WideFactor> terms, WideFactor result,
+                long productSize, long nanos) {
+            // ignored
+        }
+
+        @Override
+        public void finished(Factor result, long nanos) {
+            // ignored
+        }
+    };
+
+    /**
+     * Returns whether this trace receives the steps of the query.
+     * 
+     * @return {@code false} if the steps do not need to be reported nor timed
+     */
+    boolean isEnabled();
+
+    /**
+     * Called after a factor has been restricted to the value of an evidence
+     * variable.
+     * 
+     * @param factor
+     *            The restricted factor
+     * @param v
+     *            The evidence variable
+     * @param value
+     *            The index of the observed value of v
+     */
+    void restricted(Factor factor, Variable v, int value);
+
+    /**
+     * Called after a product of factors has been computed.
+     * 
+     * @param terms
+     *            The factors multiplied
+     * @param product
+     *            Their product
+     */
+    void multiplied(List<Factor> terms, Factor product);
+
+    /**
+     * Called after an elimination step: the product of the factors containing a
+     * variable, where this variable is summed out.
+     * 
+     * @param v
+     *            The eliminated variable
+     * @param terms
+     *            The factors which contained the variable
+     * @param result
+     *            The factor replacing them
+     * @param nanos
+     *            The duration of the step, product included, in nanoseconds
+     */
+    void eliminated(Variable v, List<Factor> terms, Factor result, long nanos);
+
+    /**
+     * Called after an elimination step on wide factors, which multiplies the
+     * factors containing a variable and sums it out in a single pass, without
+     * storing their product.
+     * 
+     * @param v
+     *            The eliminated variable, or {@code null} if the remaining factors
+     *            were only multiplied
+     * @param terms
+     *            The factors which contained the variable
+     * @param result
+     *            The factor replacing them
+     * @param productSize
+     *            The number of entries of the product of the terms
+     * @param nanos
+     *            The duration of the step, in nanoseconds
+     */
+    void eliminatedWide(Variable v, List<WideFactor> terms, WideFactor result,
+            long productSize, long nanos);
+
+    /**
+     * Called once the result of the query is computed.
+     * 
+     * @param result
+     *            The factor on the query variables
+     * @param nanos
+     *            The duration of the variable elimination, restrictions and
+     *            normalization included, in nanoseconds
+     */
+    void finished(Factor result, long nanos);
+}
@@ -0,0 +1,179 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Selects the factors of a network that a query depends on. It is computed once
+ * per network: which factors are conditional probability tables, and which factors
+ * contain each variable.
+ * <p>
+ * A query first drops the barren factors: the conditional tables of the variables
+ * which are neither queried nor observed, and which appear in no other remaining
+ * factor. Summing out such a variable gives a factor of ones, so dropping it does
+ * not change the result, and may make the tables of its parents barren in turn.
+ * What remains are the tables of the ancestors of the query and evidence
+ * variables, and the factors which are not conditional tables.
+ * <p>
+ * When the result is normalized, the query then keeps only the factors connected
+ * to the query variables once the observed variables are removed: in the moral
+ * graph of the ancestors, this separation is the d-separation of the evidence from
+ * the query, and the separated factors only contribute a constant.
+ */
+final class Relevance {
+
+    // maximum difference between one and the sum of a row of a conditional table
+    private static final double TOLERANCE = 1e-9;
+
+    private final Factor[] factors;
+    private final int[][] factorIds;
+    // ID of the first variable of each factor which is a conditional table, -1 if
+    // the factor is not one
+    private final int[] childIds;
+    // indices of the factors containing each variable, indexed by its ID
+    private final int[][] factorsOf;
+
+    Relevance(List<Factor> networkFactors) {
+        int n = networkFactors.size();
+        factors = networkFactors.toArray(new Factor[n]);
+        factorIds = new int[n][];
+        childIds = new int[n];
+        int maxId = -1;
+        for (int f = 0; f < n; f++) {
+            factorIds[f] = factors[f].getVariableIds();
+            for (int id : factorIds[f]) {
+                maxId = Math.max(maxId, id);
+            }
+            childIds[f] = factors[f].isConditional(TOLERANCE)
+                    ? factors[f].getVariables().get(0).getId() : -1;
+        }
+        int[] degrees = new int[maxId + 1];
+        for (int[] ids : factorIds) {
+            for (int id : ids) {
+                degrees[id]++;
+            }
+        }
+        factorsOf = new int[maxId + 1][];
+        for (int id = 0; id <= maxId; id++) {
+            factorsOf[id] = new int[degrees[id]];
+            degrees[id] = 0;
+        }
+        for (int f = 0; f < n; f++) {
+            for (int id : factorIds[f]) {
+                factorsOf[id][degrees[id]++] = f;
+            }
+        }
+    }
+
+    /**
+     * Returns the factors the given query depends on, in the order of the network.
+     * 
+     * @param evidence
+     *            The observed values of some variables
+     * @param normalize
+     *            If {@code true}, the factors only contributing a constant are
+     *            dropped as well
+     * @param queryVariables
+     *            The variables of the query
+     * @return A new list of factors of the network, which are not copies.
+     */
+    List<Factor> select(Evidence evidence, boolean normalize, Variable... queryVariables) {
+        BitSet observed = new BitSet();
+        for (Variable v : evidence.getVariables()) {
+            observed.set(v.getId());
+        }
+        BitSet needed = (BitSet) observed.clone();
+        boolean queryObserved = false;
+        for (Variable v : queryVariables) {
+            needed.set(v.getId());
+            queryObserved |= observed.get(v.getId());
+        }
+        boolean[] dropped = dropBarren(needed);
+        if (normalize && queryVariables.length > 0 && !queryObserved) {
+            dropSeparated(dropped, observed, queryVariables);
+        }
+        ArrayList<Factor> selected = new ArrayList<>();
+        for (int f = 0; f < factors.length; f++) {
+            if (!dropped[f]) {
+                selected.add(factors[f]);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Drops the barren conditional tables, until none remains.
+     */
+    private boolean[] dropBarren(BitSet needed) {
+        boolean[] dropped = new boolean[factors.length];
+        int[] remaining = new int[factorsOf.length];
+        for (int id = 0; id < factorsOf.length; id++) {
+            remaining[id] = factorsOf[id].length;
+        }
+        LinkedList<Integer> candidates = new LinkedList<>();
+        for (int f = 0; f < factors.length; f++) {
+            if (isBarren(f, needed, remaining)) {
+                candidates.add(f);
+            }
+        }
+        while (!candidates.isEmpty()) {
+            int f = candidates.removeFirst();
+            if (dropped[f]) {
+                continue;
+            }
+            dropped[f] = true;
+            for (int id : factorIds[f]) {
+                remaining[id]--;
+                if (remaining[id] == 1 && !needed.get(id)) {
+                    // the last factor containing the variable may now be barren
+                    for (int g : factorsOf[id]) {
+                        if (!dropped[g] && isBarren(g, needed, remaining)) {
+                            candidates.add(g);
+                        }
+                    }
+                }
+            }
+        }
+        return dropped;
+    }
+
+    private boolean isBarren(int f, BitSet needed, int[] remaining) {
+        int child = childIds[f];
+        return child >= 0 && !needed.get(child) && remaining[child] == 1;
+    }
+
+    /**
+     * Drops the factors which are not connected to the query variables by
+     * unobserved variables.
+     */
+    private void dropSeparated(boolean[] dropped, BitSet observed, Variable[] queryVariables) {
+        BitSet reached = new BitSet();
+        LinkedList<Integer> frontier = new LinkedList<>();
+        for (Variable v : queryVariables) {
+            if (v.getId() < factorsOf.length && !reached.get(v.getId())) {
+                reached.set(v.getId());
+                frontier.add(v.getId());
+            }
+        }
+        boolean[] connected = new boolean[factors.length];
+        while (!frontier.isEmpty()) {
+            for (int f : factorsOf[frontier.removeFirst()]) {
+                if (dropped[f] || connected[f]) {
+                    continue;
+                }
+                connected[f] = true;
+                for (int id : factorIds[f]) {
+                    if (!observed.get(id) && !reached.get(id)) {
+                        reached.set(id);
+                        frontier.add(id);
+                    }
+                }
+            }
+        }
+        for (int f = 0; f < factors.length; f++) {
+            dropped[f] |= !connected[f];
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * An immutable ordered list of distinct variables, which can be shared between
+ * all the assignments on the same variables. The position of a variable in the
+ * scope is found in constant time.
+ * <p>
+ * The assignments of the variables of a scope are numbered in mixed radix: the
+ * variable at position i has a stride equal to the product of the cardinalities
+ * of the variables before it, and the index of an assignment is the sum of the
+ * values of the variables multiplied by their strides.
+ */
+public final class Scope {
+
+    private final Variable[] vars;
+    private final long[] strides;
+    private final long assignmentCount;
+    private final HashMap<Variable, Integer> positions;
+    // lazily computed scopes without one of the variables, by position
+    private final Scope[] withoutCache;
+
+    public Scope(Variable... variables) {
+        this.vars = variables.clone();
+        this.strides = new long[vars.length];
+        long count = 1;
+        for (int i = 0; i < vars.length; i++) {
+            strides[i] = count;
+            if (count > Long.MAX_VALUE / vars[i].getCardinality()) {
+                throw new IllegalArgumentException("the assignments of " + this
+                        + " cannot be numbered with a long");
+            }
+            count *= vars[i].getCardinality();
+        }
+        this.assignmentCount = count;
+        this.positions = new HashMap<>();
+        for (int i = 0; i < vars.length; i++) {
+            if (positions.put(vars[i], i) != null) {
+                throw new IllegalArgumentException("the variable " + vars[i]
+                        + " appears twice in the scope");
+            }
+        }
+        this.withoutCache = new Scope[vars.length];
+    }
+
+    public Scope(ArrayList<Variable> variables) {
+        this(variables.toArray(new Variable[variables.size()]));
+    }
+
+    public int size() {
+        return vars.length;
+    }
+
+    public Variable get(int position) {
+        return vars[position];
+    }
+
+    /**
+     * Returns the stride of the variable at the given position, in the numbering
+     * of the assignments of this scope.
+     * 
+     * @param position
+     *            The position of a variable of this scope
+     * @return The product of the cardinalities of the variables before it.
+     */
+    public long getStride(int position) {
+        return strides[position];
+    }
+
+    /**
+     * Returns the number of assignments of the variables of this scope.
+     * 
+     * @return The product of the cardinalities of the variables of this scope.
+     */
+    public long getAssignmentCount() {
+        return assignmentCount;
+    }
+
+    /**
+     * Returns the position of the variable v in this scope.
+     * 
+     * @param v
+     *            The variable to look for
+     * @return The position of v in this scope, or -1 if v is not in this scope.
+     */
+    public int indexOf(Variable v) {
+        Integer position = positions.get(v);
+        return position == null ? -1 : position;
+    }
+
+    public boolean contains(Variable v) {
+        return positions.containsKey(v);
+    }
+
+    /**
+     * Returns the scope containing the same variables as this one, in the same
+     * order, except the one at the given position. The result is cached, so that
+     * removing variables from many assignments on this scope is cheap.
+     * 
+     * @param position
+     *            The position of the variable to remove
+     * @return This scope, without the variable at the given position.
+     */
+    public Scope without(int position) {
+        Scope res = withoutCache[position];
+        if (res == null) {
+            Variable[] newVars = new Variable[vars.length - 1];
+            System.arraycopy(vars, 0, newVars, 0, position);
+            System.arraycopy(vars, position + 1, newVars, position, newVars.length - position);
+            res = new Scope(newVars);
+            withoutCache[position] = res;
+        }
+        return res;
+    }
+
+    /**
+     * Returns the scope containing the variables of this scope, followed by the
+     * variables of s that are not in this scope.
+     * 
+     * @param s
+     *            The scope to merge with this one
+     * @return The union of this scope and s.
+     */
+    public Scope union(Scope s) {
+        ArrayList<Variable> mergedVars = toList();
+        for (Variable v : s.vars) {
+            if (!contains(v)) {
+                mergedVars.add(v);
+            }
+        }
+        if (mergedVars.size() == vars.length) {
+            return this;
+        }
+        return new Scope(mergedVars);
+    }
+
+    /**
+     * Returns a new list of the variables of this scope.
+     * 
+     * @return A new list of the variables of this scope, in order.
+     */
+    public ArrayList<Variable> toList() {
+        ArrayList<Variable> list = new ArrayList<>(vars.length);
+        for (Variable v : vars) {
+            list.add(v);
+        }
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(vars);
+    }
+}
@@ -0,0 +1,79 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Enumerates the indices in the table of a factor of the entries of a table
+ * listed by a file format, where the assignments of the variables are listed in
+ * a given order of the variables, the last one varying fastest. No object is
+ * allocated per entry.
+ */
+final class TableLayout {
+
+    // stride in the factor and cardinality of each listed variable
+    private final int[] strides;
+    private final int[] cardinalities;
+    private final int[] digits;
+    private final int size;
+    private int index;
+    private int count;
+
+    /**
+     * Creates the layout of the table of a factor on the given variables, listed in
+     * the given order of the same variables.
+     */
+    TableLayout(ArrayList<Variable> factorVariables, List<Variable> slowestFirst) {
+        int n = slowestFirst.size();
+        strides = new int[n];
+        cardinalities = new int[n];
+        digits = new int[n];
+        for (int i = 0; i < n; i++) {
+            Variable v = slowestFirst.get(i);
+            int position = factorVariables.indexOf(v);
+            int stride = 1;
+            for (int j = 0; j < position; j++) {
+                stride *= factorVariables.get(j).getCardinality();
+            }
+            strides[i] = stride;
+            cardinalities[i] = v.getCardinality();
+        }
+        size = Factor.tableSize(factorVariables);
+    }
+
+    /**
+     * Returns the number of entries enumerated so far.
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of entries of the table.
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the index in the table of the factor of the next listed entry.
+     */
+    int next() {
+        if (count == size) {
+            throw new IllegalArgumentException("the table has only " + size + " entries");
+        }
+        int current = index;
+        count++;
+        for (int i = digits.length - 1; i >= 0; i--) {
+            if (digits[i] == cardinalities[i] - 1) {
+                digits[i] = 0;
+                index -= (cardinalities[i] - 1) * strides[i];
+            } else {
+                digits[i]++;
+                index += strides[i];
+                break;
+            }
+        }
+        return current;
+    }
+}
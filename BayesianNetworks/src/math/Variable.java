@@ -1,14 +1,84 @@
 package math;
 
 public class Variable {
+    private final VariableRegistry registry;
     private String name;
+    private int id;
+    // names of the values, null for a boolean variable
+    private String[] valueNames;
+    private int cardinality;
     private boolean set;
-    private boolean value;
+    private int value;
 
+    /**
+     * Creates a boolean variable with the given name. Variables with the same name
+     * are equal: they are interned to the same ID by the default
+     * {@link VariableRegistry}. The variables of a model with its own registry are
+     * created by {@link VariableRegistry#variable(String)}.
+     * 
+     * @param name
+     *            The name of the variable
+     */
     public Variable(String name) {
+        this(VariableRegistry.getDefault(), name, null, 2);
+    }
+
+    /**
+     * Creates a variable with the given name, taking the given values. The values
+     * are designated by their index in the tables of the factors: the first value
+     * is 0, the next one 1, and so on.
+     * 
+     * @param name
+     *            The name of the variable
+     * @param valueNames
+     *            The names of the values of the variable
+     */
+    public Variable(String name, String... valueNames) {
+        this(VariableRegistry.getDefault(), name, valueNames.clone(), valueNames.length);
+    }
+
+    /**
+     * Creates a variable with the given name, taking the values from 0 to
+     * cardinality - 1.
+     * 
+     * @param name
+     *            The name of the variable
+     * @param cardinality
+     *            The number of values of the variable
+     */
+    public Variable(String name, int cardinality) {
+        this(VariableRegistry.getDefault(), name, defaultValueNames(cardinality), cardinality);
+    }
+
+    /**
+     * Creates a variable interned in the given registry.
+     */
+    Variable(VariableRegistry registry, String name, String[] valueNames, int cardinality) {
+        if (cardinality < 1) {
+            throw new IllegalArgumentException("a variable must have at least one value");
+        }
+        this.registry = registry;
         this.name = name;
+        this.id = registry.intern(name, cardinality);
+        this.valueNames = valueNames;
+        this.cardinality = cardinality;
         this.set = false;
-        this.value = false;
+        this.value = 0;
+    }
+
+    /**
+     * Returns the names of the values from 0 to cardinality - 1, or null for a
+     * boolean variable.
+     */
+    static String[] defaultValueNames(int cardinality) {
+        if (cardinality == 2) {
+            return null;
+        }
+        String[] valueNames = new String[Math.max(cardinality, 0)];
+        for (int i = 0; i < valueNames.length; i++) {
+            valueNames[i] = String.valueOf(i);
+        }
+        return valueNames;
     }
 
     public boolean isSet() {
@@ -19,7 +89,75 @@ public class Variable {
         return name;
     }
 
+    /**
+     * Returns the dense integer ID of this variable in its registry.
+     * 
+     * @return the ID of this variable
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the registry this variable was created in.
+     * 
+     * @return the registry interning the name of this variable
+     */
+    public VariableRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Returns the number of values of this variable, 2 for a boolean variable.
+     * 
+     * @return the number of values of this variable
+     */
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Returns whether this variable is boolean, meaning that its values 0 and 1
+     * stand for false and true.
+     * 
+     * @return {@code true} if this variable is boolean
+     */
+    public boolean isBoolean() {
+        return valueNames == null;
+    }
+
+    /**
+     * Returns the names of the values of this variable, or null if it is boolean.
+     */
+    String[] getValueNames() {
+        return valueNames == null ? null : valueNames.clone();
+    }
+
+    /**
+     * Returns the value of this boolean variable. Only boolean variables have a
+     * boolean value; the value of other variables is given by
+     * {@link #getValueIndex()}.
+     * 
+     * @return {@code true} if the value of this variable is 1
+     * @throws IllegalStateException
+     *             If this variable is not boolean
+     */
     public boolean getValue() {
+        checkBoolean();
+        return getValueIndex() == 1;
+    }
+
+    /**
+     * Throws an {@link IllegalStateException} if this variable is not boolean.
+     */
+    void checkBoolean() {
+        if (!isBoolean()) {
+            throw new IllegalStateException("the variable " + name
+                    + " is not boolean, use its value index instead");
+        }
+    }
+
+    public int getValueIndex() {
         if (!set) {
             throw new RuntimeException("accessing value of unset variable");
         }
@@ -27,6 +165,11 @@ public class Variable {
     }
 
     public void set(boolean value) {
+        set(value ? 1 : 0);
+    }
+
+    public void set(int value) {
+        checkValue(value);
         this.value = value;
         this.set = true;
     }
@@ -35,8 +178,27 @@ public class Variable {
         this.set = false;
     }
 
-    public boolean equals(Variable v) {
-        return name.equals(v.name);
+    /**
+     * Raises an exception if the value is not one of the values of this variable.
+     * 
+     * @param value
+     *            The index of a value
+     */
+    public void checkValue(int value) {
+        if (value < 0 || value >= cardinality) {
+            throw new IllegalArgumentException("the variable " + name + " has no value " + value);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Variable && ((Variable) o).id == id
+                && ((Variable) o).registry == registry;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
     }
 
     /*
@@ -52,6 +214,13 @@ public class Variable {
         return res;
     }
 
+    public String toStringWithValue(int givenValue) {
+        if (valueNames == null) {
+            return toStringWithValue(givenValue == 1);
+        }
+        return name.toLowerCase() + "=" + valueNames[givenValue];
+    }
+
     public String toStringWithValue() {
         if (!set) {
             return name + "?";
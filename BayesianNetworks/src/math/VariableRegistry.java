@@ -0,0 +1,206 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Interns variable names to dense integer IDs: the first name registered gets the
+ * ID 0, the next one 1, and so on. Variables with the same name in the same
+ * registry share the same ID, which allows scopes to be represented as sorted
+ * arrays of IDs or as bitsets.
+ * <p>
+ * Each model should create its variables in its own registry, like the parsers do
+ * for each network they read: models can then reuse the names of other models
+ * with other values, and the IDs of a model stay dense. The variables created
+ * by the constructors of {@link Variable} belong to the default registry, which
+ * lives as long as the JVM. The variables of different registries are never
+ * equal, and cannot be mixed in a factor.
+ */
+public final class VariableRegistry {
+
+    private static final VariableRegistry DEFAULT = new VariableRegistry();
+
+    private final HashMap<String, Integer> ids = new HashMap<>();
+    private final ArrayList<String> names = new ArrayList<>();
+    private final ArrayList<Integer> cardinalities = new ArrayList<>();
+
+    /**
+     * Returns the registry used by the constructors of {@link Variable}.
+     * 
+     * @return the default registry
+     */
+    public static VariableRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a boolean variable with the given name in this registry.
+     * 
+     * @param name
+     *            The name of the variable
+     * @return A new variable, equal to the other variables with this name in this
+     *         registry.
+     * @see Variable#Variable(String)
+     */
+    public Variable variable(String name) {
+        return new Variable(this, name, null, 2);
+    }
+
+    /**
+     * Creates a variable with the given name and values in this registry.
+     * 
+     * @param name
+     *            The name of the variable
+     * @param valueNames
+     *            The names of the values of the variable
+     * @return A new variable, equal to the other variables with this name in this
+     *         registry.
+     * @see Variable#Variable(String, String...)
+     */
+    public Variable variable(String name, String... valueNames) {
+        return new Variable(this, name, valueNames.clone(), valueNames.length);
+    }
+
+    /**
+     * Creates a variable with the given name in this registry, taking the values
+     * from 0 to cardinality - 1.
+     * 
+     * @param name
+     *            The name of the variable
+     * @param cardinality
+     *            The number of values of the variable
+     * @return A new variable, equal to the other variables with this name in this
+     *         registry.
+     * @see Variable#Variable(String, int)
+     */
+    public Variable variable(String name, int cardinality) {
+        return new Variable(this, name, Variable.defaultValueNames(cardinality), cardinality);
+    }
+
+    /**
+     * Returns the ID of the given name, registering it first if necessary.
+     * 
+     * @param name
+     *            The name of a variable
+     * @param cardinality
+     *            The number of values of the variable, which must be the same for
+     *            all the variables with this name
+     * @return The ID of this name in this registry.
+     */
+    public synchronized int intern(String name, int cardinality) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+            cardinalities.add(cardinality);
+        } else if (cardinalities.get(id) != cardinality) {
+            throw new IllegalArgumentException("the variable " + name + " already has "
+                    + cardinalities.get(id) + " values");
+        }
+        return id;
+    }
+
+    /**
+     * Returns the number of values of the variables with the given ID.
+     * 
+     * @param id
+     *            An ID returned by {@link #intern(String, int)}
+     * @return The cardinality of the variables with this ID.
+     */
+    public synchronized int getCardinality(int id) {
+        checkId(id);
+        return cardinalities.get(id);
+    }
+
+    /**
+     * Returns the name corresponding to the given ID.
+     * 
+     * @param id
+     *            An ID returned by {@link #intern(String, int)}
+     * @return The name with this ID.
+     */
+    public synchronized String getName(int id) {
+        checkId(id);
+        return names.get(id);
+    }
+
+    private void checkId(int id) {
+        if (id < 0 || id >= names.size()) {
+            throw new IllegalArgumentException("no variable is registered with the ID " + id);
+        }
+    }
+
+    /**
+     * Returns the number of registered names, which is also an upper bound for the
+     * IDs (to size bitsets or lookup tables indexed by ID).
+     * 
+     * @return the number of registered names
+     */
+    public synchronized int size() {
+        return names.size();
+    }
+
+    /*
+     * Operations on scopes represented as sorted arrays of IDs
+     */
+
+    /**
+     * Returns whether the sorted array of IDs contains the given ID.
+     */
+    public static boolean contains(int[] sortedIds, int id) {
+        return Arrays.binarySearch(sortedIds, id) >= 0;
+    }
+
+    /**
+     * Returns the sorted union of two sorted arrays of IDs, in linear time.
+     */
+    public static int[] union(int[] sortedIds1, int[] sortedIds2) {
+        int[] res = new int[sortedIds1.length + sortedIds2.length];
+        int i = 0, j = 0, k = 0;
+        while (i < sortedIds1.length || j < sortedIds2.length) {
+            if (j == sortedIds2.length
+                    || (i < sortedIds1.length && sortedIds1[i] < sortedIds2[j])) {
+                res[k++] = sortedIds1[i++];
+            } else if (i == sortedIds1.length || sortedIds2[j] < sortedIds1[i]) {
+                res[k++] = sortedIds2[j++];
+            } else {
+                res[k++] = sortedIds1[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(res, k);
+    }
+
+    /**
+     * Returns the sorted intersection of two sorted arrays of IDs, in linear time.
+     */
+    public static int[] intersection(int[] sortedIds1, int[] sortedIds2) {
+        int[] res = new int[Math.min(sortedIds1.length, sortedIds2.length)];
+        int i = 0, j = 0, k = 0;
+        while (i < sortedIds1.length && j < sortedIds2.length) {
+            if (sortedIds1[i] < sortedIds2[j]) {
+                i++;
+            } else if (sortedIds2[j] < sortedIds1[i]) {
+                j++;
+            } else {
+                res[k++] = sortedIds1[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(res, k);
+    }
+
+    /**
+     * Returns a bitset containing the given IDs.
+     */
+    public static BitSet toBitSet(int[] ids) {
+        BitSet set = new BitSet();
+        for (int id : ids) {
+            set.set(id);
+        }
+        return set;
+    }
+}
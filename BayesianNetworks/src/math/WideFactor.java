@@ -0,0 +1,362 @@
+package math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A read-only factor whose table is indexed by longs and stored off the heap, for
+ * the intermediate factors too large for the table of a {@link Factor}, which is
+ * an array limited to 2^31 entries and allocated on the heap. The table has the
+ * same layout as the one of a factor: the first variable varies fastest.
+ * <p>
+ * The elimination steps on wide factors multiply their terms and sum out the
+ * eliminated variable in a single pass, so that the product, the largest factor
+ * of a step, is never stored.
+ * <p>
+ * The memory of the table is released by {@link #close()}, or when the factor is
+ * collected if it is never closed.
+ */
+public final class WideFactor implements AutoCloseable {
+
+    private final ArrayList<Variable> vars;
+    // IDs of the variables in increasing order
+    private final int[] ids;
+    private final long[] strides;
+    private final long size;
+    private final OffHeapTable table;
+    private final boolean logSpace;
+    private volatile boolean closed;
+
+    private WideFactor(ArrayList<Variable> variables, boolean logSpace, int chunkShift) {
+        this.vars = variables;
+        this.logSpace = logSpace;
+        ids = new int[vars.size()];
+        strides = new long[vars.size()];
+        long s = 1;
+        for (int i = 0; i < strides.length; i++) {
+            ids[i] = vars.get(i).getId();
+            strides[i] = s;
+            int cardinality = vars.get(i).getCardinality();
+            if (s > Long.MAX_VALUE / cardinality) {
+                throw new IllegalArgumentException("the table of the factor would have more than "
+                        + Long.MAX_VALUE + " entries");
+            }
+            s *= cardinality;
+        }
+        Arrays.sort(ids);
+        size = s;
+        table = chunkShift > 0 ? new OffHeapTable(size, chunkShift) : new OffHeapTable(size);
+    }
+
+    /**
+     * Copies the given factor off the heap.
+     * 
+     * @param f
+     *            The factor to copy, dense, sparse or mapped
+     * @return A new wide factor with the same variables and values as f.
+     */
+    public static WideFactor copyOf(Factor f) {
+        return copyOf(f, 0);
+    }
+
+    /**
+     * Copies the given factor into a table stored in buffers of
+     * {@code 2^chunkShift} values, or of the default size if chunkShift is 0.
+     */
+    static WideFactor copyOf(Factor f, int chunkShift) {
+        WideFactor w = new WideFactor(f.getVariables(), f.isLogSpace(), chunkShift);
+        for (int i = 0; i < f.getSize(); i++) {
+            w.table.set(i, f.valueAt(i));
+        }
+        return w;
+    }
+
+    /**
+     * Returns the variables of this factor.
+     * 
+     * @return A new list of the variables of this factor, in the order of the
+     *         table.
+     */
+    public ArrayList<Variable> getVariables() {
+        return new ArrayList<>(vars);
+    }
+
+    public boolean contains(Variable v) {
+        return Arrays.binarySearch(ids, v.getId()) >= 0;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean isLogSpace() {
+        return logSpace;
+    }
+
+    /**
+     * Returns the value of the given entry of the table.
+     * 
+     * @param index
+     *            The index of the entry: the sum of the values of the variables
+     *            multiplied by their strides
+     * @return the value of the entry, a logarithm in log space
+     */
+    public double getValue(long index) {
+        checkOpen();
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("no entry " + index + " in " + this);
+        }
+        return table.get(index);
+    }
+
+    /**
+     * Releases the memory of the table of this factor immediately, instead of
+     * waiting for the factor to be collected. The factor cannot be read anymore,
+     * and closing it twice has no effect.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        table.free();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The factor " + this + " is closed");
+        }
+    }
+
+    /**
+     * Copies this factor into the heap.
+     * 
+     * @return A new factor with the same variables and values as this factor.
+     * @throws IllegalArgumentException
+     *             If the table of this factor is too large for a {@link Factor}.
+     */
+    public Factor toFactor() {
+        checkOpen();
+        double[] values = new double[Factor.tableSize(vars)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = table.get(i);
+        }
+        return new Factor(new ArrayList<>(vars), values, logSpace);
+    }
+
+    /**
+     * Computes the product of the given factors where the given variable is summed
+     * out, without storing the product: each entry of the result sums the products
+     * of the entries of the terms for all the values of the variable.
+     * 
+     * @param terms
+     *            The factors to multiply, which are not modified
+     * @param summedOut
+     *            The variable to sum out, or null to compute the product only
+     * @return A new factor on the variables of the terms, except the summed out
+     *         one.
+     */
+    public static WideFactor sumProduct(List<WideFactor> terms, Variable summedOut) {
+        return sumProduct(terms, summedOut, 0);
+    }
+
+    static WideFactor sumProduct(List<WideFactor> terms, Variable summedOut, int chunkShift) {
+        ArrayList<Variable> resultVars = new ArrayList<>();
+        BitSet resultIds = new BitSet();
+        boolean logSpace = false;
+        for (WideFactor f : terms) {
+            f.checkOpen();
+            logSpace = f.logSpace;
+            for (Variable v : f.vars) {
+                if (!resultIds.get(v.getId()) && !v.equals(summedOut)) {
+                    resultIds.set(v.getId());
+                    resultVars.add(v);
+                }
+            }
+        }
+        WideFactor result = new WideFactor(resultVars, logSpace, chunkShift);
+        WideFactor[] factors = terms.toArray(new WideFactor[terms.size()]);
+        int n = resultVars.size();
+        int t = factors.length;
+        // strides of each result variable and of the summed out variable in each term
+        long[][] termStrides = new long[t][n];
+        long[] summedStrides = new long[t];
+        for (int k = 0; k < t; k++) {
+            for (int i = 0; i < n; i++) {
+                termStrides[k][i] = factors[k].strideOf(resultVars.get(i));
+            }
+            summedStrides[k] = summedOut == null ? 0 : factors[k].strideOf(summedOut);
+        }
+        int summedCardinality = summedOut == null ? 1 : summedOut.getCardinality();
+        double[] products = new double[summedCardinality];
+        int[] assignment = new int[n];
+        long[] indices = new long[t];
+        for (long index = 0; index < result.size; index++) {
+            for (int s = 0; s < summedCardinality; s++) {
+                double product = logSpace ? 0 : 1;
+                for (int k = 0; k < t; k++) {
+                    double value = factors[k].table.get(indices[k] + s * summedStrides[k]);
+                    product = logSpace ? product + value : product * value;
+                }
+                products[s] = product;
+            }
+            result.table.set(index, logSpace ? logSumExp(products) : sum(products));
+            // increment the assignment, and the indices in the terms with it
+            for (int i = 0; i < n; i++) {
+                int max = resultVars.get(i).getCardinality() - 1;
+                if (assignment[i] == max) {
+                    assignment[i] = 0;
+                    for (int k = 0; k < t; k++) {
+                        indices[k] -= max * termStrides[k][i];
+                    }
+                } else {
+                    assignment[i]++;
+                    for (int k = 0; k < t; k++) {
+                        indices[k] += termStrides[k][i];
+                    }
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the stride of v in the table of this factor, 0 if v is not one of its
+     * variables.
+     */
+    private long strideOf(Variable v) {
+        int position = vars.indexOf(v);
+        return position < 0 ? 0 : strides[position];
+    }
+
+    private static double sum(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static double logSumExp(double[] logValues) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : logValues) {
+            max = Math.max(max, value);
+        }
+        if (max == Double.NEGATIVE_INFINITY) {
+            return max;
+        }
+        double sum = 0;
+        for (double value : logValues) {
+            sum += Math.exp(value - max);
+        }
+        return max + Math.log(sum);
+    }
+
+    /**
+     * Executes the variable elimination algorithm on wide factors: the given
+     * factors are copied off the heap, and each elimination step computes its
+     * product and sum out in a single pass. Only the result, on the query
+     * variables, is copied back into the heap.
+     * 
+     * @param factors
+     *            The factors, already restricted to the evidence, which are not
+     *            modified
+     * @param queryVariables
+     *            The variables we want to see in the resulting factor
+     * @param order
+     *            The hidden variables, in the order of their elimination
+     * @param normalize
+     *            If {@code true}, the result is normalized.
+     * @param trace
+     *            The trace of the query, which is only finished with the result
+     * @return A new factor on the query variables.
+     * @throws IllegalArgumentException
+     *             If the result is too large for a {@link Factor}.
+     */
+    public static Factor inference(List<Factor> factors, List<Variable> queryVariables,
+            List<Variable> order, boolean normalize, QueryTrace trace) {
+        long start = trace.isEnabled() ? System.nanoTime() : 0;
+        BitSet queryIds = new BitSet();
+        for (Variable v : queryVariables) {
+            queryIds.set(v.getId());
+        }
+        // the tables of the consumed factors are released as soon as they are replaced
+        FactorBuckets<WideFactor> buckets = new FactorBuckets<>();
+        LinkedList<WideFactor> terms = new LinkedList<>();
+        Factor result;
+        try {
+            for (Factor f : factors) {
+                WideFactor w = copyOf(f);
+                buckets.add(w, w.ids);
+            }
+            for (Variable v : order) {
+                if (queryIds.get(v.getId())) {
+                    continue;
+                }
+                terms.clear();
+                buckets.take(v, terms);
+                if (!terms.isEmpty()) {
+                    WideFactor w = sumProduct(terms, v, trace);
+                    close(terms);
+                    buckets.add(w, w.ids);
+                }
+            }
+            terms.clear();
+            terms.addAll(buckets.getFactors());
+            try (WideFactor w = sumProduct(terms, null, trace)) {
+                result = w.toFactor();
+            }
+        } finally {
+            close(terms);
+            close(buckets.getFactors());
+        }
+        if (normalize) {
+            result.normalize();
+        }
+        if (trace.isEnabled()) {
+            trace.finished(result, System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /**
+     * Computes an elimination step, and reports it to the trace with the size of
+     * its product.
+     */
+    private static WideFactor sumProduct(List<WideFactor> terms, Variable summedOut,
+            QueryTrace trace) {
+        if (!trace.isEnabled()) {
+            return sumProduct(terms, summedOut);
+        }
+        long start = System.nanoTime();
+        WideFactor result = sumProduct(terms, summedOut);
+        long productSize = result.size;
+        if (summedOut != null) {
+            int cardinality = summedOut.getCardinality();
+            productSize = productSize > Long.MAX_VALUE / cardinality ? Long.MAX_VALUE
+                    : productSize * cardinality;
+        }
+        trace.eliminatedWide(summedOut, terms, result, productSize, System.nanoTime() - start);
+        return result;
+    }
+
+    private static void close(List<WideFactor> factors) {
+        for (WideFactor f : factors) {
+            f.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (vars.isEmpty()) {
+            return "f(-)";
+        }
+        StringBuilder sb = new StringBuilder("f(");
+        for (int i = 0; i < vars.size(); i++) {
+            sb.append(i > 0 ? "," : "").append(vars.get(i));
+        }
+        return sb.append(")").toString();
+    }
+}
@@ -0,0 +1,230 @@
+package math;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads a Bayesian network in the XML Bayesian Interchange Format (XMLBIF). The
+ * document is parsed with a streaming XML reader, and the probabilities of a
+ * table are converted as their text arrives: only the table being read is held in
+ * memory, besides the factors already built.
+ * <p>
+ * The table of the definition of a variable lists the probabilities with the
+ * value of the variable varying fastest, and among the given variables, the last
+ * one varying fastest. Only chance variables (of type nature) are supported, and
+ * the properties are ignored.
+ */
+public final class XmlBifParser {
+
+    private final XMLStreamReader xml;
+    // the variables of each file are interned in a registry of their own
+    private final VariableRegistry registry = new VariableRegistry();
+    private final HashMap<String, Variable> variables = new HashMap<>();
+    private final ArrayList<Factor> factors = new ArrayList<>();
+
+    private XmlBifParser(XMLStreamReader xml) {
+        this.xml = xml;
+    }
+
+    /**
+     * Reads the XMLBIF file at the given path.
+     * 
+     * @param path
+     *            The file to read
+     * @return A new network with the conditional probability tables of the file.
+     * @throws IOException
+     *             If the file cannot be read, or is not valid.
+     */
+    public static BayesianNetwork parse(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return parse(in);
+        }
+    }
+
+    /**
+     * Reads an XMLBIF document from the given stream, which is not closed.
+     * 
+     * @param in
+     *            The stream of the document, whose encoding is given by its XML
+     *            declaration
+     * @return A new network with the conditional probability tables of the
+     *         document.
+     * @throws IOException
+     *             If the document cannot be read, or is not valid.
+     */
+    public static BayesianNetwork parse(InputStream in) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // never resolve external entities
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader xml = factory.createXMLStreamReader(in);
+            try {
+                return new XmlBifParser(xml).parseNetwork();
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private BayesianNetwork parseNetwork() throws IOException, XMLStreamException {
+        try {
+            while (xml.hasNext()) {
+                if (xml.next() == XMLStreamConstants.START_ELEMENT) {
+                    String element = xml.getLocalName().toUpperCase();
+                    if (element.equals("VARIABLE")) {
+                        parseVariable();
+                    } else if (element.equals("DEFINITION") || element.equals("PROBABILITY")) {
+                        parseDefinition();
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw error(e.getMessage());
+        }
+        return new BayesianNetwork(factors);
+    }
+
+    private void parseVariable() throws IOException, XMLStreamException {
+        String type = xml.getAttributeValue(null, "TYPE");
+        if (type != null && !type.equalsIgnoreCase("nature")) {
+            throw error("the variables of type " + type + " are not supported");
+        }
+        String name = null;
+        List<String> values = new ArrayList<>();
+        while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String element = xml.getLocalName().toUpperCase();
+            if (element.equals("NAME")) {
+                name = xml.getElementText().trim();
+            } else if (element.equals("OUTCOME") || element.equals("VALUE")) {
+                values.add(xml.getElementText().trim());
+            } else {
+                skipElement();
+            }
+        }
+        if (name == null || values.isEmpty()) {
+            throw error("a variable needs a name and values");
+        }
+        if (variables.containsKey(name)) {
+            throw error("the variable " + name + " is declared twice");
+        }
+        variables.put(name, registry.variable(name, values.toArray(new String[values.size()])));
+    }
+
+    private void parseDefinition() throws IOException, XMLStreamException {
+        Variable child = null;
+        ArrayList<Variable> given = new ArrayList<>();
+        Factor factor = null;
+        while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String element = xml.getLocalName().toUpperCase();
+            if (element.equals("FOR")) {
+                child = variable(xml.getElementText().trim());
+            } else if (element.equals("GIVEN")) {
+                given.add(variable(xml.getElementText().trim()));
+            } else if (element.equals("TABLE")) {
+                if (child == null) {
+                    throw error("the table comes before the variable it is for");
+                }
+                factor = parseTable(child, given);
+            } else {
+                skipElement();
+            }
+        }
+        if (factor == null) {
+            throw error("the definition of " + child + " has no table");
+        }
+        factors.add(factor);
+    }
+
+    /**
+     * Reads the probabilities of the table, converting each of them as soon as its
+     * text is complete.
+     */
+    private Factor parseTable(Variable child, ArrayList<Variable> given)
+            throws IOException, XMLStreamException {
+        ArrayList<Variable> vars = new ArrayList<>();
+        vars.add(child);
+        vars.addAll(given);
+        ArrayList<Variable> slowestFirst = new ArrayList<>(given);
+        slowestFirst.add(child);
+        TableLayout layout = new TableLayout(vars, slowestFirst);
+        double[] table = new double[layout.getSize()];
+        Arrays.fill(table, Double.NaN);
+        // the number split between two chunks of text
+        StringBuilder number = new StringBuilder();
+        int event;
+        while ((event = xml.next()) != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                throw error("unexpected element " + xml.getLocalName() + " in a table");
+            }
+            if (event != XMLStreamConstants.CHARACTERS && event != XMLStreamConstants.CDATA) {
+                continue;
+            }
+            char[] text = xml.getTextCharacters();
+            int end = xml.getTextStart() + xml.getTextLength();
+            for (int i = xml.getTextStart(); i < end; i++) {
+                if (Character.isWhitespace(text[i])) {
+                    addNumber(number, table, layout);
+                } else {
+                    number.append(text[i]);
+                }
+            }
+        }
+        addNumber(number, table, layout);
+        if (layout.getCount() != layout.getSize()) {
+            throw error("the table of " + child + " has " + layout.getCount()
+                    + " entries instead of " + layout.getSize());
+        }
+        return new Factor(vars, table, false);
+    }
+
+    private void addNumber(StringBuilder number, double[] table, TableLayout layout)
+            throws IOException {
+        if (number.length() == 0) {
+            return;
+        }
+        try {
+            table[layout.next()] = Double.parseDouble(number.toString());
+        } catch (NumberFormatException e) {
+            throw error("expected a probability instead of " + number);
+        }
+        number.setLength(0);
+    }
+
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private Variable variable(String name) throws IOException {
+        Variable v = variables.get(name);
+        if (v == null) {
+            throw error("the variable " + name + " is not declared");
+        }
+        return v;
+    }
+
+    private IOException error(String message) {
+        return new IOException("line " + xml.getLocation().getLineNumber() + ": " + message);
+    }
+}